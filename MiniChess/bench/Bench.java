@@ -0,0 +1,360 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+/* Class:
+ *   Bench
+ * Description:
+ *   Microbenchmarks for the engine hot paths (move generation, move execution,
+ *   evaluation, hashing and a fixed-depth negamax search), run over a set of
+ *   opening, middlegame and endgame positions read with State.readBoard.
+ *
+ *   Each benchmark is warmed up and then measured for a number of fixed-length
+ *   iterations on a single thread. The report gives throughput (ops/s, mean and
+ *   standard deviation over the iterations) and allocation: bytes allocated per
+ *   operation, allocation rate in MB/s, and the number of garbage collections
+ *   during measurement. These are the same figures JMH's throughput mode and
+ *   gc profiler report; JMH itself cannot be used because it does not accept
+ *   benchmark classes in the default package, which is where the engine lives.
+ *
+ *   With -smp, runs the multi-threaded search time-to-depth report instead: how
+ *   long a search with 1, 2, 4, 8 and 16 threads takes to complete the given
+ *   depth on each position, and the speedup over one thread. -nopvs runs the
+ *   same report with principal variation search turned off, for comparison.
+ */
+public class Bench {
+	private static int warmupIterations = 3;
+	private static int measureIterations = 5;
+	private static long iterationMillis = 500;
+	private static int searchDepth = 3;
+	private static int[] threadCounts = { 1, 2, 4, 8, 16 };
+	private static boolean pvs = true;
+
+	/* Results are folded into this field so the JIT cannot discard the work. */
+	private static volatile long sink;
+
+	/* Class:
+	 *   Benchmark
+	 * Description:
+	 *   One benchmarked operation. setUp is called once per position before
+	 *   warmup, and run is called repeatedly and returns a value to be sunk.
+	 */
+	private static abstract class Benchmark {
+		String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		void setUp(State s) throws Exception {
+		}
+
+		abstract long run(State s) throws Exception;
+	}
+
+	private static Benchmark[] allBenchmarks() {
+		return new Benchmark[] {
+			new Benchmark("generateMoves") {
+				private MoveList list = new MoveList();
+
+				long run(State s) {
+					s.generateMoves(list);
+					return list.size;
+				}
+			},
+			new Benchmark("getAllValidMoves") {
+				long run(State s) {
+					return s.getAllValidMoves().size();
+				}
+			},
+			new Benchmark("executeMove") {
+				private Vector<Move> moves;
+				private int next;
+
+				void setUp(State s) {
+					moves = s.getAllValidMoves();
+					next = 0;
+				}
+
+				long run(State s) throws Exception {
+					State child = s.executeMove(moves.elementAt(next));
+					next = (next + 1) % moves.size();
+					return child.getHash();
+				}
+			},
+			new Benchmark("getStateValue") {
+				long run(State s) {
+					return s.getStateValue();
+				}
+			},
+			new Benchmark("genHash") {
+				long run(State s) {
+					s.genHash();
+					return s.getHash();
+				}
+			},
+			new Benchmark("negamax") {
+				/* searchToDepth clears the table every time, so keep it small
+				 * enough that clearing it does not dominate the search. */
+				void setUp(State s) {
+					SearchOptions options = new SearchOptions();
+					options.hashMB = 1;
+					s.setSearchOptions(options);
+				}
+
+				long run(State s) {
+					return s.searchToDepth(searchDepth);
+				}
+			},
+		};
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Runs the benchmarks.
+	 *   Usage: java Bench [-warmup N] [-iterations N] [-time ms] [-depth N]
+	 *                     [-bench name,name,...] [-smp] [-threads N,N,...] [-nopvs]
+	 *                     [position files or directories...]
+	 *   With no positions given, reads every file in the "positions" directory.
+	 * Inputs:
+	 *   args : Command line arguments as shown above.
+	 * Outputs:
+	 *   One result line per benchmark and position on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws Exception {
+		List<String> selected = null;
+		boolean smp = false;
+		Vector<File> files = new Vector<File>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-warmup":
+				warmupIterations = Integer.parseInt(args[++i]);
+				break;
+			case "-iterations":
+				measureIterations = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				iterationMillis = Long.parseLong(args[++i]);
+				break;
+			case "-depth":
+				searchDepth = Integer.parseInt(args[++i]);
+				break;
+			case "-bench":
+				selected = Arrays.asList(args[++i].split(","));
+				break;
+			case "-smp":
+				smp = true;
+				break;
+			case "-nopvs":
+				pvs = false;
+				break;
+			case "-threads":
+				String[] counts = args[++i].split(",");
+				threadCounts = new int[counts.length];
+				for (int t = 0; t < counts.length; t++) {
+					threadCounts[t] = Integer.parseInt(counts[t]);
+				}
+				break;
+			default:
+				addPositionFiles(new File(args[i]), files);
+				break;
+			}
+		}
+		if (files.size() == 0) {
+			addPositionFiles(new File("positions"), files);
+		}
+		if (smp) {
+			smpReport(files);
+			return;
+		}
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		System.out.println(String.format("%-17s %-24s %14s %12s %12s %10s %5s",
+				"Benchmark", "Position", "ops/s", "+-", "B/op", "MB/s", "GCs"));
+		Benchmark[] benchmarks = allBenchmarks();
+		for (int b = 0; b < benchmarks.length; b++) {
+			Benchmark bench = benchmarks[b];
+			if (selected != null && !selected.contains(bench.name)) {
+				continue;
+			}
+			for (int f = 0; f < files.size(); f++) {
+				State s = readPosition(files.elementAt(f));
+				if (s == null || s.gameOver()) {
+					continue;
+				}
+				bench.setUp(s);
+
+				for (int i = 0; i < warmupIterations; i++) {
+					runIteration(bench, s);
+				}
+
+				double[] opsPerSec = new double[measureIterations];
+				long totalOps = 0;
+				long totalNanos = 0;
+				long gcsBefore = gcCount();
+				long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+				for (int i = 0; i < measureIterations; i++) {
+					long start = System.nanoTime();
+					long ops = runIteration(bench, s);
+					long elapsed = System.nanoTime() - start;
+					opsPerSec[i] = ops * 1.0e9 / elapsed;
+					totalOps += ops;
+					totalNanos += elapsed;
+				}
+				long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+				long gcs = gcCount() - gcsBefore;
+
+				System.out.println(String.format("%-17s %-24s %14.1f %12.1f %12.1f %10.1f %5d",
+						bench.name, files.elementAt(f).getName(), mean(opsPerSec), stddev(opsPerSec),
+						(double)allocated / totalOps, allocated / (1024.0 * 1024.0) / (totalNanos * 1.0e-9), gcs));
+			}
+		}
+	}
+
+	/* Function:
+	 *   smpReport
+	 * Description:
+	 *   Times a search to searchDepth with each number of threads in threadCounts,
+	 *   starting from an empty transposition table each time, and reports the mean
+	 *   time over the measured iterations and the speedup over the first count.
+	 * Inputs:
+	 *   files : The positions to search.
+	 * Outputs:
+	 *   One result line per position and thread count on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	private static void smpReport(Vector<File> files) throws IOException {
+		System.out.println("Time to depth " + searchDepth + " ("
+				+ Runtime.getRuntime().availableProcessors() + " processors available)");
+		System.out.println(String.format("%-24s %8s %12s %12s %9s",
+				"Position", "Threads", "ms", "+-", "Speedup"));
+		for (int f = 0; f < files.size(); f++) {
+			double baseMillis = 0;
+			for (int t = 0; t < threadCounts.length; t++) {
+				for (int i = 0; i < warmupIterations; i++) {
+					if (timeToDepth(files.elementAt(f), threadCounts[t]) < 0) {
+						break;
+					}
+				}
+				double[] millis = new double[measureIterations];
+				for (int i = 0; i < measureIterations; i++) {
+					millis[i] = timeToDepth(files.elementAt(f), threadCounts[t]);
+				}
+				if (measureIterations == 0 || millis[0] < 0) {
+					break;
+				}
+				double m = mean(millis);
+				if (t == 0) {
+					baseMillis = m;
+				}
+				System.out.println(String.format("%-24s %8d %12.1f %12.1f %9.2f",
+						files.elementAt(f).getName(), threadCounts[t], m, stddev(millis), baseMillis / m));
+			}
+		}
+	}
+
+	/* Reads the position fresh (so the search starts with an empty transposition
+	 * table), searches it to searchDepth on the given number of threads and
+	 * returns the time taken in milliseconds, or -1 if the position is unusable. */
+	private static double timeToDepth(File file, int threads) throws IOException {
+		State s = readPosition(file);
+		if (s == null || s.gameOver()) {
+			return -1;
+		}
+		SearchOptions options = new SearchOptions();
+		options.threads = threads;
+		options.maxDepth = searchDepth;
+		options.moveTimeLimit = Double.MAX_VALUE;
+		options.pvs = pvs;
+		s.setSearchOptions(options);
+		long start = System.nanoTime();
+		sink = s.getBestMove().hashCode();
+		return (System.nanoTime() - start) * 1.0e-6;
+	}
+
+	/* Runs the benchmark repeatedly for one iteration's worth of time and
+	 * returns how many operations completed. */
+	private static long runIteration(Benchmark bench, State s) throws Exception {
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long ops = 0;
+		long result = 0;
+		do {
+			result += bench.run(s);
+			ops++;
+		} while (System.nanoTime() < deadline);
+		sink = result;
+		return ops;
+	}
+
+	/* Adds a position file, or every file in a directory, to the list. */
+	private static void addPositionFiles(File file, Vector<File> files) {
+		if (file.isDirectory()) {
+			File[] contents = file.listFiles();
+			if (contents != null) {
+				Arrays.sort(contents);
+				for (int i = 0; i < contents.length; i++) {
+					if (contents[i].isFile()) {
+						files.add(contents[i]);
+					}
+				}
+			}
+		} else {
+			files.add(file);
+		}
+	}
+
+	/* Reads a position with State.readBoard, or returns null if it is invalid. */
+	private static State readPosition(File file) throws IOException {
+		State s = new State();
+		FileInputStream in = new FileInputStream(file);
+		int result = s.readBoard(in);
+		in.close();
+		if (result != 0) {
+			System.out.println(file + ": skipped (readBoard returned " + result + ")");
+			return null;
+		}
+		return s;
+	}
+
+	/* Total number of collections run by all garbage collectors so far. */
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			sum += values[i];
+		}
+		return sum / values.length;
+	}
+
+	private static double stddev(double[] values) {
+		if (values.length < 2) {
+			return 0;
+		}
+		double m = mean(values);
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			sum += (values[i] - m) * (values[i] - m);
+		}
+		return Math.sqrt(sum / (values.length - 1));
+	}
+}
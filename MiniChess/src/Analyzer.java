@@ -0,0 +1,385 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Class:
+ *   Analyzer
+ * Description:
+ *   Searches a batch of positions, written in the format of State.readBoard
+ *   (e.g. tests/board/*.txt), and writes the best move found for each as a
+ *   line of CSV or JSON. A file may hold one position or many, one after
+ *   another, with or without blank lines between them.
+ *
+ *   One thread reads the positions into a small bounded queue, and a pool of
+ *   worker threads takes them from it and searches each on a single thread,
+ *   so memory stays bounded however many positions there are and every core is
+ *   kept busy. All workers share one transposition table (see TTable, which
+ *   needs no locking), so positions from the same game help each other.
+ *   Results are written as soon as they are found, so they come out in the
+ *   order the searches finish; the index column gives the input order.
+ */
+public class Analyzer implements Runnable {
+	/* Positions waiting in the queue for each worker. */
+	private static final int QUEUE_PER_WORKER = 4;
+	/* Lines of a board in the format of State.readBoard. */
+	private static final int BOARD_LINES = 7;
+	private static final String CSV_HEADER = "index,source,turn,side,move,score,depth,nodes,ms,error";
+
+	/* Class:
+	 *   Position
+	 * Description:
+	 *   A position read from the input, waiting to be searched. A Position with
+	 *   no board marks the end of the input.
+	 */
+	private static class Position {
+		int index;      // Place in the input, from 0.
+		String source;  // File and line the position starts on.
+		String board;   // The position's lines, or null at the end of the input.
+		String error;   // Why the position could not be read, or null.
+
+		Position(int index, String source, String board, String error) {
+			this.index = index;
+			this.source = source;
+			this.board = board;
+			this.error = error;
+		}
+	}
+
+	private State start;                   // Every position is read into a copy of it, so all share its table and options.
+	private double moveTime;               // Seconds to search each position for, or 0 for no time limit.
+	private boolean json;                  // Write JSON lines rather than CSV.
+	private PrintStream out;               // Where the results go.
+	private BlockingQueue<Position> queue; // Positions read but not yet taken by a worker.
+	private int numPositions;              // Positions read so far.
+	private AtomicInteger numInvalid;      // Positions that could not be read.
+	private AtomicInteger numFailed;       // Positions whose search failed.
+	private AtomicLong totalNodes;         // Nodes searched by all workers.
+
+	/* Function:
+	 *   Analyzer
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *      start : A State with the search options to use. Its transposition table
+	 *              is built now and shared by every search.
+	 *   moveTime : Seconds to search each position for, or 0 to stop only at the
+	 *              depth or node limit in the search options.
+	 *       json : Write JSON lines rather than CSV.
+	 *    workers : Number of worker threads that will be run.
+	 *        out : Where to write the results.
+	 * Outputs:
+	 *   A new Analyzer.
+	 * Return values:
+	 *   None.
+	 */
+	public Analyzer(State start, double moveTime, boolean json, int workers, PrintStream out) {
+		this.start = start;
+		this.moveTime = moveTime;
+		this.json = json;
+		this.out = out;
+		start.getTable();
+		queue = new ArrayBlockingQueue<Position>(Math.max(workers, 1) * QUEUE_PER_WORKER);
+		numPositions = 0;
+		numInvalid = new AtomicInteger(0);
+		numFailed = new AtomicInteger(0);
+		totalNodes = new AtomicLong(0);
+	}
+
+	/* Function:
+	 *   analyze
+	 * Description:
+	 *   Searches every position in the given inputs on the given number of
+	 *   worker threads, writing each result as it is found.
+	 * Inputs:
+	 *    inputs : Files of positions, directories of such files (each file in
+	 *             name order), or "-" for standard in.
+	 *   workers : Number of worker threads.
+	 * Outputs:
+	 *   A header (for CSV) and one line per position on the output stream.
+	 * Return values:
+	 *   None.
+	 */
+	public void analyze(Vector<String> inputs, int workers) throws IOException, InterruptedException {
+		if (!json) {
+			out.println(CSV_HEADER);
+		}
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			threads[i] = new Thread(this, "analyzer-" + (i + 1));
+			threads[i].start();
+		}
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				String input = inputs.elementAt(i);
+				if (input.equals("-")) {
+					read(System.in, "stdin");
+					continue;
+				}
+				File file = new File(input);
+				File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+				Arrays.sort(files);
+				for (int j = 0; j < files.length; j++) {
+					if (files[j].isFile()) {
+						FileInputStream in = new FileInputStream(files[j]);
+						try {
+							read(in, files[j].getPath());
+						} finally {
+							in.close();
+						}
+					}
+				}
+			}
+		} finally {
+			for (int i = 0; i < workers; i++) {
+				queue.put(new Position(-1, null, null, null));
+			}
+			for (int i = 0; i < workers; i++) {
+				threads[i].join();
+			}
+			out.flush();
+		}
+	}
+
+	/* Splits an input into positions and queues them, waiting while the queue
+	 * is full. Blank lines between positions are skipped. */
+	private void read(InputStream input, String name) throws IOException, InterruptedException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(input));
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			String source = name + ":" + lineNumber;
+			StringBuilder board = new StringBuilder(line).append('\n');
+			int numLines = 1;
+			while (numLines < BOARD_LINES && (line = in.readLine()) != null) {
+				lineNumber++;
+				board.append(line).append('\n');
+				numLines++;
+			}
+			String error = (numLines < BOARD_LINES) ? "board ended early" : null;
+			queue.put(new Position(numPositions++, source, board.toString(), error));
+		}
+	}
+
+	/* Takes positions from the queue and searches them until the end of the
+	 * input. Run by each worker thread. A search that fails gets an error line
+	 * of its own, and the worker goes on: if it stopped, the reader would wait
+	 * forever for room in the queue. */
+	public void run() {
+		try {
+			while (true) {
+				Position position = queue.take();
+				if (position.board == null) {
+					return;
+				}
+				try {
+					search(position);
+				} catch (Exception e) {
+					numFailed.incrementAndGet();
+					position.error = "search failed: " + e;
+					write(position, null, null, null, 0);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Function:
+	 *   search
+	 * Description:
+	 *   Reads a position and searches it, then writes the result.
+	 * Inputs:
+	 *   position : The position.
+	 * Outputs:
+	 *   The result line on the output stream.
+	 * Return values:
+	 *   None.
+	 */
+	private void search(Position position) {
+		State s = start.clone();
+		if (position.error == null) {
+			int result = s.readBoard(new ByteArrayInputStream(position.board.getBytes()));
+			if (result != 0) {
+				position.error = "readBoard returned " + result;
+			}
+		}
+		if (position.error != null) {
+			numInvalid.incrementAndGet();
+			write(position, null, null, null, 0);
+			return;
+		}
+
+		long deadline = (moveTime > 0) ? System.nanoTime() + (long)(moveTime * 1e9) : Long.MAX_VALUE;
+		long startTime = System.nanoTime();
+		Search search = new Search(s.clone(), s.getTable(), s.getSearchOptions(), 0, null, deadline);
+		Move bestMove = search.searchWithHelpers();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		search.logStats(s, bestMove, seconds, false);
+		SearchStats stats = search.getStats();
+		totalNodes.addAndGet(stats.nodes);
+		write(position, s, bestMove, stats, seconds);
+	}
+
+	/* Writes one result line. For a position that could not be read or searched,
+	 * s, move and stats are null. */
+	private void write(Position position, State s, Move move, SearchStats stats, double seconds) {
+		String line;
+		if (json) {
+			StringBuilder b = new StringBuilder();
+			b.append("{\"index\":").append(position.index);
+			b.append(",\"source\":").append(jsonString(position.source));
+			if (s == null) {
+				b.append(",\"error\":").append(jsonString(position.error)).append('}');
+			} else {
+				b.append(",\"turn\":").append(s.getTurnNumber());
+				b.append(",\"side\":\"").append(s.whiteOnMove() ? 'W' : 'B').append('"');
+				b.append(",\"move\":").append(move == null ? "null" : "\"" + move + "\"");
+				b.append(",\"score\":").append(stats.score);
+				b.append(",\"depth\":").append(stats.depth);
+				b.append(",\"nodes\":").append(stats.nodes);
+				b.append(",\"ms\":").append(String.format(Locale.ROOT, "%.1f", seconds * 1000.0));
+				b.append('}');
+			}
+			line = b.toString();
+		} else if (s == null) {
+			line = position.index + "," + csvString(position.source) + ",,,,,,,," + csvString(position.error);
+		} else {
+			line = position.index + "," + csvString(position.source) + "," + s.getTurnNumber() + ","
+					+ (s.whiteOnMove() ? 'W' : 'B') + "," + (move == null ? "" : move.toString()) + ","
+					+ stats.score + "," + stats.depth + "," + stats.nodes + ","
+					+ String.format(Locale.ROOT, "%.1f", seconds * 1000.0) + ",";
+		}
+		synchronized (out) {
+			out.println(line);
+		}
+	}
+
+	/* Quotes a string for CSV if it needs it. */
+	private static String csvString(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/* Quotes a string for JSON. */
+	private static String jsonString(String value) {
+		StringBuilder b = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c < ' ') {
+				b.append(String.format("\\u%04x", (int)c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Analyzes a batch of positions.
+	 *   Usage: java Analyzer [-depth N] [-time seconds] [-nodes N] [-workers N]
+	 *          [-hash MB] [-tb directory] [-stats file] [-json] [-out file]
+	 *          files, directories or - ...
+	 *   With no depth, time or node limit, each position is searched for
+	 *   Engine.DEFAULT_MOVE_TIME seconds. The limits apply to each position.
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, one worker per
+	 *          core and CSV on standard out.
+	 * Outputs:
+	 *   One line per position, then a summary on standard error.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		SearchOptions options = new SearchOptions();
+		double moveTime = 0.0;
+		int workers = Runtime.getRuntime().availableProcessors();
+		boolean json = false;
+		String outFile = null;
+		Vector<String> inputs = new Vector<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-depth":
+				options.maxDepth = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				moveTime = Double.parseDouble(args[++i]);
+				break;
+			case "-nodes":
+				options.maxNodes = Long.parseLong(args[++i]);
+				break;
+			case "-workers":
+				workers = Integer.parseInt(args[++i]);
+				break;
+			case "-hash":
+				options.hashMB = Integer.parseInt(args[++i]);
+				break;
+			case "-tb":
+				options.tablebaseDir = args[++i];
+				break;
+			case "-stats":
+				options.statsFile = args[++i];
+				break;
+			case "-json":
+				json = true;
+				break;
+			case "-out":
+				outFile = args[++i];
+				break;
+			default:
+				inputs.add(args[i]);
+				break;
+			}
+		}
+		if (inputs.size() == 0) {
+			System.out.println("Usage: java Analyzer [-depth N] [-time seconds] [-nodes N] [-workers N] [-hash MB]"
+					+ " [-tb directory] [-stats file] [-json] [-out file] files, directories or - ...");
+			return;
+		}
+		if (moveTime <= 0 && options.maxDepth <= 0 && options.maxNodes <= 0) {
+			moveTime = Engine.DEFAULT_MOVE_TIME;
+		}
+		workers = Math.max(workers, 1);
+
+		State start = new State();
+		start.setSearchOptions(options);
+		PrintStream out = (outFile == null) ? System.out : new PrintStream(new FileOutputStream(outFile), true);
+		Analyzer analyzer = new Analyzer(start, moveTime, json, workers, out);
+		long startTime = System.nanoTime();
+		try {
+			analyzer.analyze(inputs, workers);
+		} finally {
+			if (out != System.out) {
+				out.close();
+			}
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		long nodes = analyzer.totalNodes.get();
+		System.err.println(String.format(Locale.ROOT, "%d positions (%d invalid, %d failed) on %d workers in %.1f s,"
+				+ " %d nodes, %d nodes/sec, table %.1f%% full", analyzer.numPositions, analyzer.numInvalid.get(),
+				analyzer.numFailed.get(), workers, seconds, nodes, (long)(nodes / Math.max(seconds, 1e-9)), start.getTable().getUsage() * 100.0));
+	}
+}
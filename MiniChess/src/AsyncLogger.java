@@ -0,0 +1,147 @@
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/* Class:
+ *   AsyncLogger
+ * Description:
+ *   Writes log lines on a thread of its own, so that the thread logging them
+ *   (e.g. the one reading the server's lines while our clock runs) never waits
+ *   on the console. Lines are queued, written in order, and the stream is
+ *   flushed once the queue is empty rather than after every line. If the
+ *   queue is full, lines are dropped and counted rather than blocking; close
+ *   reports how many.
+ */
+public class AsyncLogger implements Runnable {
+	private static final int CAPACITY = 4096;
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private static AsyncLogger standardOut = null;  // Shared logger for System.out.
+
+	private PrintStream out;               // Where the lines go.
+	private BlockingQueue<String> queue;   // Lines waiting to be written.
+	private long queued;                   // Lines queued so far (guarded by this).
+	private long written;                  // Lines written so far (guarded by this).
+	private long dropped;                  // Lines dropped because the queue was full (guarded by this).
+	private boolean closed;                // Set by close (guarded by this).
+	private Thread thread;                 // Writes the queued lines.
+
+	/* Builds a logger writing to the given stream, and starts its thread. */
+	public AsyncLogger(PrintStream out) {
+		this.out = out;
+		queue = new ArrayBlockingQueue<String>(CAPACITY);
+		queued = 0;
+		written = 0;
+		dropped = 0;
+		closed = false;
+		thread = new Thread(this, "async-logger");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/* Returns the logger shared by everything that logs to System.out. Its
+	 * lines are buffered, not flushed one at a time as System.out does. */
+	public static synchronized AsyncLogger getStandardOut() {
+		if (standardOut == null || standardOut.isClosed()) {
+			standardOut = new AsyncLogger(new PrintStream(new BufferedOutputStream(System.out, BUFFER_BYTES), false));
+		}
+		return standardOut;
+	}
+
+	/* Queues a line to be written. Never blocks, unless the logger is closed,
+	 * when the line is written at once. */
+	public synchronized void log(String line) {
+		if (closed) {
+			out.println(line);
+			out.flush();
+		} else if (queue.offer(line)) {
+			queued++;
+		} else {
+			dropped++;
+		}
+	}
+
+	/* Waits until every line queued so far has been written. */
+	public synchronized void flush() {
+		long target = queued;
+		try {
+			while (written < target) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Returns the number of lines dropped because the queue was full. */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/* Returns true once close has been called. */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/* Function:
+	 *   close
+	 * Description:
+	 *   Writes every line queued, stops the logger's thread, and reports how
+	 *   many lines were dropped, if any, so that a log never has lines missing
+	 *   without saying so. Lines logged afterwards are written at once.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The remaining lines, and the count of dropped lines, on the stream.
+	 * Return values:
+	 *   None.
+	 */
+	public void close() {
+		flush();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			String line;
+			while ((line = queue.poll()) != null) {
+				out.println(line);
+			}
+			if (dropped > 0) {
+				out.println("(" + dropped + " log lines dropped: the log queue was full)");
+			}
+			out.flush();
+		}
+	}
+
+	/* Writes lines as they are queued. Run on the logger's own thread. */
+	public void run() {
+		try {
+			while (true) {
+				String line = queue.take();
+				int n = 1;
+				out.println(line);
+				while ((line = queue.poll()) != null) {
+					out.println(line);
+					n++;
+				}
+				out.flush();
+				synchronized (this) {
+					written += n;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Nothing more to write.
+		}
+	}
+}
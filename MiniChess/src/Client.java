@@ -45,11 +45,50 @@ import java.util.Vector;
  * A lower-level "expect/send" interface is also provided
  * for those who want to extend the functionality of this
  * class.
+ * <p>
+ * Lines from the server are logged through an AsyncLogger,
+ * so the thread playing the game never waits on the
+ * console. If the connection is lost during a game,
+ * reconnect() logs on again and resumes the game (see
+ * ImcsServer for the resume command). A server without
+ * the resume command rejects it, and the game is given
+ * up at once rather than retried.
  */
 public class Client {
+    static final int RECONNECT_ATTEMPTS = 6;
+    static final long RECONNECT_DELAY_MS = 250;
+
     BufferedReader in;
     PrintStream out;
     String sendLineEnding = "\r\n";
+    Socket socket;
+    String server;
+    String portStr;
+    String username;
+    String password;
+    String gameId = null;
+    AsyncLogger log = AsyncLogger.getStandardOut();
+    long moveSentTime = 0;
+    boolean prompted = false;
+    double clock = -1;
+    LatencyRecorder ackTimes = new LatencyRecorder();
+
+    /**
+     * Read a line from the server. The first line read after
+     * a move was sent is taken as the server's acknowledgement
+     * of the move, and the time since sending it is recorded
+     * (see getAckTimes()).
+     * @return  line, or null at end of file
+     */
+    String readLine()
+      throws IOException {
+	String line = in.readLine();
+	if (line != null && moveSentTime != 0) {
+	    ackTimes.add(System.nanoTime() - moveSentTime);
+	    moveSentTime = 0;
+	}
+	return line;
+    }
 
     /**
      * Get a response from the server. Blocks until response
@@ -61,11 +100,11 @@ public class Client {
       throws IOException {
 	String response;
 	while(true) {
-	    response = in.readLine();
+	    response = readLine();
 	    if (response == null)
 		throw new IOException("expectResponse: EOF");
 	    if (verbose)
-		System.out.println(response);
+		log.log(response);
 	    if (response.length() < 3)
 		continue;
 	    int i = 0;
@@ -118,7 +157,7 @@ public class Client {
      */
     public void send(String cmd, boolean verbose) {
 	if (verbose)
-	    System.out.println(cmd);
+	    log.log(cmd);
 	out.print(cmd + sendLineEnding);
 	out.flush();
     }
@@ -153,8 +192,16 @@ public class Client {
     
     void setClient(String server, String portStr,
 	           String username, String password) throws IOException {
+	this.server = server;
+	this.portStr = portStr;
+	this.username = username;
+	this.password = password;
 	int port = Integer.parseInt(portStr);
 	Socket s = new Socket(server, port);
+	s.setTcpNoDelay(true);
+	socket = s;
+	moveSentTime = 0;
+	prompted = false;
 	InputStreamReader isr =
 	    new InputStreamReader(s.getInputStream());
 	in = new BufferedReader(isr);
@@ -169,17 +216,18 @@ public class Client {
     /**
      * Get a move string from the IMCS server. Blocks
      * until move is received.
-     * @return  opponent move string
+     * @return  opponent move string, or null if the server
+     *          ended the game
      */
     String getMove()
       throws IOException {
 	String line;
 	char ch;
 	while (true) {
-	    line = in.readLine();
+	    line = readLine();
 	    if (line == null)
-		return null;
-	    System.out.println(line);
+		throw new IOException("server terminated unexpectedly");
+	    log.log(line);
 	    if (line.length() == 0)
 		continue;
 	    ch = line.charAt(0);
@@ -192,21 +240,80 @@ public class Client {
     }
 
     /**
-     * Send a move to the server.
-     * @param moveStr  move string to send
+     * Wait for the server to ask for a move ("?" line), and
+     * note the time left on our clock that it gives (see
+     * getClock()). Call before searching, so the search is
+     * budgeted from the server's clock.
+     * @return  false if the server ended the game instead of
+     *          asking for a move
      */
-    void sendMove(String moveStr) 
+    boolean awaitPrompt()
       throws IOException {
+	if (prompted)
+	    return true;
 	String line;
 	do {
-	    line = in.readLine();
+	    line = readLine();
 	    if (line == null)
 		throw new IOException("server terminated unexpectedly");
-	    System.out.println(line);
+	    log.log(line);
+	    if (line.length() > 0 && line.charAt(0) == '=')
+		return false;
 	} while (line.length() == 0 || line.charAt(0) != '?');
-	System.out.println(moveStr);
+	prompted = true;
+	clock = parseClock(line);
+	return true;
+    }
+
+    /**
+     * Get the time left on our clock, as the server gave it
+     * when it last asked for a move.
+     * @return  seconds left, or -1 if the server did not say
+     */
+    double getClock() {
+	return clock;
+    }
+
+    /**
+     * Get the time left on the clock of the player asked to
+     * move from a "?" line, e.g. "? 4:59.120 4:58.003".
+     * @param line  the line
+     * @return  seconds left, or -1 if the line has no clock
+     */
+    static double parseClock(String line) {
+	String[] words = line.trim().split("\\s+");
+	if (words.length < 2)
+	    return -1;
+	try {
+	    String[] parts = words[1].split(":");
+	    double seconds = 0;
+	    for (int i = 0; i < parts.length; i++)
+		seconds = seconds * 60 + Double.parseDouble(parts[i]);
+	    return seconds;
+	} catch (NumberFormatException e) {
+	    return -1;
+	}
+    }
+
+    /**
+     * Send a move to the server, first waiting for the
+     * server to ask for it if awaitPrompt() has not.
+     * @param moveStr  move string to send
+     * @return  false if the server ended the game instead of
+     *          asking for the move
+     */
+    boolean sendMove(String moveStr) 
+      throws IOException {
+	if (!awaitPrompt())
+	    return false;
+	prompted = false;
 	out.print(moveStr + sendLineEnding);
 	out.flush();
+	if (out.checkError())
+	    throw new IOException("could not send move " + moveStr);
+	moveSentTime = System.nanoTime();
+	log.log(moveStr);
+	return true;
     }
 
     /**
@@ -223,8 +330,15 @@ public class Client {
 	    send("offer", true);
 	else
 	    send("offer " + color, true);
-	expect("103", true);
-	String code = responseCode(expectResponse(true));
+	String offered = expect("103", true);
+	gameId = offered.split(" ")[0];
+	String response = expectResponse(true);
+	String code = responseCode(response);
+	// The game may be played under another id than the
+	// one offered (a server pairing offers, say).
+	String[] started = responseString(response).split(" ");
+	if (started.length > 0 && started[0].matches("[0-9]+"))
+	    gameId = started[0];
 	if (code.equals("105"))
 	    return 'W';
 	else if (code.equals("106"))
@@ -246,6 +360,7 @@ public class Client {
 	    send("accept " + id, true);
 	else
 	    send("accept " + id + " " + color, true);
+	gameId = id;
 	String code = responseCode(expectResponse(true));
 	if (code.equals("105"))
 	    return 'W';
@@ -271,10 +386,10 @@ public class Client {
     	char ch;
     	Vector<Game> available_games = new Vector<Game>(10);
     	while (true) {
-    	    line = in.readLine();
+    	    line = readLine();
     	    if (line == null)
     		return null;
-    	    System.out.println(line);
+    	    log.log(line);
     	    if (line.length() == 0)
     		continue;
     	    
@@ -300,6 +415,90 @@ public class Client {
     	return available_games;
     }
 
+    /**
+     * Rejoin the game being played, after logging on again.
+     * Moves the server has but the client has not are sent
+     * again as "! move" lines, for getMove() to read.
+     * @param color  the color your side is playing
+     * @param plies  number of moves the client has made or
+     *               seen in the game so far
+     * @return  number of moves the server has, which is less
+     *          than plies if moves sent were lost; or -1 if
+     *          the game can no longer be resumed, or the
+     *          server rejects the command (e.g. "401 unknown
+     *          command" from a server without resume)
+     */
+    public int resume(char color, int plies)
+      throws IOException {
+	send("resume " + gameId + " " + color + " " + plies, true);
+	String response = expectResponse(true);
+	String code = responseCode(response);
+	if (!code.equals("105") && !code.equals("106"))
+	    return -1;
+	String[] words = responseString(response).split(" ");
+	return Integer.parseInt(words[words.length - 1]);
+    }
+
+    /**
+     * Connect to the server again, log on and resume the game
+     * being played. Tries RECONNECT_ATTEMPTS times, waiting
+     * twice as long after each failure to connect or log on;
+     * if the server rejects the resume, gives up at once.
+     * @param color  the color your side is playing
+     * @param plies  number of moves the client has made or
+     *               seen in the game so far
+     * @return  number of moves the server has (see resume())
+     */
+    public int reconnect(char color, int plies)
+      throws IOException {
+	long delay = RECONNECT_DELAY_MS;
+	IOException failure = null;
+	for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+	    int serverPlies;
+	    try {
+		close();
+	    } catch (IOException e) {
+		// Already broken.
+	    }
+	    try {
+		setClient(server, portStr, username, password);
+		serverPlies = resume(color, plies);
+	    } catch (IOException e) {
+		failure = e;
+		log.log("reconnect attempt " + attempt + " failed: " + e.getMessage());
+		try {
+		    Thread.sleep(delay);
+		} catch (InterruptedException ie) {
+		    Thread.currentThread().interrupt();
+		    break;
+		}
+		delay *= 2;
+		continue;
+	    }
+	    if (serverPlies < 0)
+		throw new IOException("game " + gameId + " cannot be resumed");
+	    return serverPlies;
+	}
+	throw new IOException("could not resume game " + gameId, failure);
+    }
+
+    /**
+     * Get the id of the game offered or accepted.
+     * @return  game id number string, or null
+     */
+    public String getGameId() {
+	return gameId;
+    }
+
+    /**
+     * Get the time from sending each move to the server's
+     * next line, taken as its acknowledgement.
+     * @return  the send-to-ack times
+     */
+    public LatencyRecorder getAckTimes() {
+	return ackTimes;
+    }
+
     /**
      * Closes the connection to the server. Do not use the
      * object after this.
@@ -308,5 +507,6 @@ public class Client {
       throws IOException {
 	in.close();
 	out.close();
+	socket.close();
     }
 }
@@ -0,0 +1,333 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/* Class:
+ *   Engine
+ * Description:
+ *   Lets a script or another program drive the bot through a line-based
+ *   protocol on standard in and standard out (see MiniChessPlayer -engine), so
+ *   many positions can be analysed by one process, with the transposition
+ *   table kept from one search to the next. Commands:
+ *
+ *     position start [moves M...]  The starting position, then the given moves
+ *                                  (e.g. "moves b2-b3 d5-d4").
+ *     position board [moves M...]  The position on the next 7 lines, in the
+ *                                  format of State.readBoard, then the moves.
+ *     go [depth N] [nodes N] [time S] [infinite]
+ *                                  Searches the position. Prints an "info" line
+ *                                  after each iteration (see Search.setProgress)
+ *                                  and then "bestmove M", or "bestmove none" if
+ *                                  there is no move (after an "error" line if
+ *                                  the search failed). With no limits, the -time
+ *                                  and depth settings apply, or DEFAULT_MOVE_TIME
+ *                                  if there are none. "infinite" searches until
+ *                                  "stop".
+ *     stop                         Ends the search, which then prints its move.
+ *     isready                      Prints "readyok".
+ *     setoption NAME VALUE         Changes a setting (see SearchOptions.set).
+ *     new                          The starting position, for a new game.
+ *     board                        Prints the position.
+ *     quit                         Stops the search and exits.
+ *
+ *   The search runs on a thread of its own, so stop and isready are answered
+ *   while it runs. Any other command waits for the search to finish first, so
+ *   a script can send position and go commands one after another without
+ *   waiting for each bestmove. Bad commands print a line starting "error".
+ */
+public class Engine implements Runnable {
+	/* Seconds to search for when go is given no limit and none is set. */
+	public static final double DEFAULT_MOVE_TIME = 1.0;
+	/* Lines of a board in the format of State.readBoard. */
+	private static final int BOARD_LINES = 7;
+
+	private BufferedReader in;   // Commands.
+	private PrintStream out;     // Replies.
+	private State start;         // The starting position. Every position is copied from it, so all share its table and options.
+	private State position;      // The position set by the last position or new command.
+	private State root;          // The position being searched.
+	private Search search;       // The search running, or null.
+	private Thread searchThread; // The thread running it.
+
+	/* Function:
+	 *   Engine
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *   start : The starting position, with the search options and
+	 *           transposition table to use.
+	 *      in : The stream to read commands from.
+	 *     out : The stream to write replies to.
+	 * Outputs:
+	 *   A new Engine, set to the starting position.
+	 * Return values:
+	 *   None.
+	 */
+	public Engine(State start, InputStream in, PrintStream out) {
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = out;
+		this.start = start;
+		position = start.clone();
+		root = null;
+		search = null;
+		searchThread = null;
+	}
+
+	/* Function:
+	 *   listen
+	 * Description:
+	 *   Reads and carries out commands until quit or the end of the input. At
+	 *   the end of the input, a search in progress is allowed to finish.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   Replies on the output stream.
+	 * Return values:
+	 *   None.
+	 */
+	public void listen() throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] words = line.trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			if (words[0].equals("quit")) {
+				stopSearch();
+				break;
+			}
+			try {
+				execute(words);
+			} catch (IllegalArgumentException e) {
+				out.println("error " + e.getMessage());
+			}
+		}
+		waitForSearch();
+	}
+
+	/* Carries out a command other than quit. */
+	private void execute(String[] words) throws IOException {
+		switch (words[0]) {
+		case "stop":
+			stopSearch();
+			return;
+		case "isready":
+			out.println("readyok");
+			return;
+		default:
+			break;
+		}
+
+		waitForSearch();
+		switch (words[0]) {
+		case "position":
+			setPosition(words);
+			break;
+		case "go":
+			go(words);
+			break;
+		case "setoption":
+			if (words.length != 3) {
+				throw new IllegalArgumentException("Usage: setoption NAME VALUE");
+			}
+			setOption(words[1], words[2]);
+			break;
+		case "new":
+			position = start.clone();
+			start.getTable().newGame();
+			break;
+		case "board":
+			position.writeBoard(out);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown command: " + words[0]);
+		}
+	}
+
+	/* Function:
+	 *   setPosition
+	 * Description:
+	 *   Carries out a position command. The position is only changed if the
+	 *   whole command is valid.
+	 * Inputs:
+	 *   words : The words of the command.
+	 * Outputs:
+	 *   The new position is stored in this Engine.
+	 * Return values:
+	 *   None.
+	 */
+	private void setPosition(String[] words) throws IOException {
+		if (words.length < 2 || (words.length > 2 && !words[2].equals("moves"))) {
+			throw new IllegalArgumentException("Usage: position start|board [moves M...]");
+		}
+		State next = start.clone();
+		if (words[1].equals("board")) {
+			StringBuilder board = new StringBuilder();
+			for (int i = 0; i < BOARD_LINES; i++) {
+				String line = in.readLine();
+				if (line == null) {
+					throw new IllegalArgumentException("Board ended early.");
+				}
+				board.append(line).append('\n');
+			}
+			int result = next.readBoard(new ByteArrayInputStream(board.toString().getBytes()));
+			if (result != 0) {
+				throw new IllegalArgumentException("Invalid board (readBoard returned " + result + ").");
+			}
+		} else if (!words[1].equals("start")) {
+			throw new IllegalArgumentException("Unknown position: " + words[1]);
+		}
+		for (int i = 3; i < words.length; i++) {
+			try {
+				next = next.makeImcsMove(words[i]);
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Invalid move " + words[i] + ": " + e.getMessage());
+			}
+		}
+		position = next;
+	}
+
+	/* Function:
+	 *   go
+	 * Description:
+	 *   Carries out a go command: starts searching the position on the search
+	 *   thread with the limits given.
+	 * Inputs:
+	 *   words : The words of the command.
+	 * Outputs:
+	 *   The search is started, or "bestmove none" printed if the game is over.
+	 * Return values:
+	 *   None.
+	 */
+	private void go(String[] words) {
+		SearchOptions options = position.getSearchOptions().clone();
+		double time = options.moveTimeLimit;
+		boolean infinite = false;
+		for (int i = 1; i < words.length; i++) {
+			if (words[i].equals("infinite")) {
+				infinite = true;
+				continue;
+			}
+			if (i + 1 >= words.length) {
+				throw new IllegalArgumentException("Missing value for " + words[i]);
+			}
+			String value = words[++i];
+			try {
+				switch (words[i - 1]) {
+				case "depth":
+					options.maxDepth = Integer.parseInt(value);
+					break;
+				case "nodes":
+					options.maxNodes = Long.parseLong(value);
+					break;
+				case "time":
+					time = Double.parseDouble(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown limit: " + words[i - 1]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + words[i - 1] + ": " + value);
+			}
+		}
+		if (!infinite && time <= 0 && options.maxDepth <= 0 && options.maxNodes <= 0) {
+			time = DEFAULT_MOVE_TIME;
+		}
+		if (position.gameOver()) {
+			out.println("bestmove none");
+			return;
+		}
+
+		long deadline = Long.MAX_VALUE;
+		if (!infinite && time > 0) {
+			deadline = System.nanoTime() + (long)(time * 1e9);
+		}
+		root = position;
+		synchronized (this) {
+			search = new Search(position.clone(), position.getTable(), options, 0, null, deadline);
+			search.setProgress(out);
+			searchThread = new Thread(this, "engine-search");
+			searchThread.start();
+		}
+	}
+
+	/* Function:
+	 *   run
+	 * Description:
+	 *   Runs the search started by go, on the search thread, and prints the
+	 *   move it finds.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The info lines and "bestmove" line on the output stream, and the search
+	 *   statistics in the statistics file if one is set. If the search fails, an
+	 *   "error" line and "bestmove none", so a driver waiting for the move never
+	 *   hangs.
+	 * Return values:
+	 *   None.
+	 */
+	public void run() {
+		long startTime = System.nanoTime();
+		Move bestMove = null;
+		try {
+			bestMove = search.searchWithHelpers();
+			search.logStats(root, bestMove, (System.nanoTime() - startTime) / 1e9, false);
+		} catch (Exception e) {
+			out.println("error search failed: " + e);
+		}
+		out.println("bestmove " + (bestMove == null ? "none" : bestMove.toString()));
+		out.flush();
+	}
+
+	/* Carries out a setoption command. A new table size takes effect at once,
+	 * with an empty table, and the position is kept. */
+	private void setOption(String name, String value) {
+		SearchOptions options = start.getSearchOptions();
+		int oldHashMB = options.hashMB;
+		try {
+			options.set(name, value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+		}
+		if (options.hashMB != oldHashMB) {
+			start.setSearchOptions(options);
+			long[] bitboards = new long[Piece.EMPTY];
+			for (int i = 0; i < bitboards.length; i++) {
+				bitboards[i] = position.getBitboard(i);
+			}
+			State moved = start.clone();
+			moved.setPosition(bitboards, position.whiteOnMove(), position.getTurnNumber());
+			position = moved;
+		}
+	}
+
+	/* Stops the search, if one is running. */
+	private synchronized void stopSearch() {
+		if (search != null) {
+			search.stop();
+		}
+	}
+
+	/* Waits for the search, if one is running, to finish. */
+	private void waitForSearch() {
+		Thread thread;
+		synchronized (this) {
+			thread = searchThread;
+		}
+		if (thread == null) {
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			search = null;
+			searchThread = null;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/* Class:
+ *   ImcsLoadTest
+ * Description:
+ *   Measures how fast a MultiClient plays many IMCS games at once, against an
+ *   ImcsServer on the loopback address in the same process, so no real server
+ *   is needed. Every session offers a game and the server pairs them, so the
+ *   bot plays itself. Three kinds of time are reported for each move:
+ *
+ *     think : The engine's search (MultiClient).
+ *     reply : From the client reading the "?" to it sending the move: think
+ *             plus waiting for a free worker and for the selector thread.
+ *     move  : From the server sending the "?" to it reading the move: reply
+ *             plus a round trip (ImcsServer).
+ */
+public class ImcsLoadTest {
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Runs the load test.
+	 *   Usage: java ImcsLoadTest [-games N] [-time seconds per move]
+	 *          [-clock seconds per game] [-workers N] [-hash MB] [-verbose]
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, 50 games at
+	 *          0.05 seconds per move with 60 seconds a side, one worker per core
+	 *          and the default table size.
+	 * Outputs:
+	 *   The results and times on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException {
+		int games = 50;
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		boolean verbose = false;
+		SearchOptions options = new SearchOptions();
+		options.moveTimeLimit = 0.05;
+		options.gameClock = 60.0;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-games":
+				games = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				options.moveTimeLimit = Double.parseDouble(args[++i]);
+				break;
+			case "-clock":
+				options.moveTimeLimit = 0.0;
+				options.gameClock = Double.parseDouble(args[++i]);
+				break;
+			case "-workers":
+				numWorkers = Integer.parseInt(args[++i]);
+				break;
+			case "-hash":
+				options.hashMB = Integer.parseInt(args[++i]);
+				break;
+			case "-verbose":
+				verbose = true;
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+
+		ImcsServer server = new ImcsServer(0, options.gameClock, true, 0.0, verbose);
+		Thread serverThread = new Thread(server, "imcs-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		MultiClient client = new MultiClient(numWorkers);
+		client.setVerbose(verbose);
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getPort());
+		TTable table = new TTable(options.hashMB);
+		for (int i = 0; i < 2 * games; i++) {
+			State start = new State();
+			start.setSearchOptions(options);
+			start.setTable(table);
+			client.add(new ImcsSession(client, i + 1, start, "bot" + (i + 1), "test", "offer"), address);
+		}
+		long startTime = System.nanoTime();
+		client.run();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		server.close();
+
+		System.out.println(String.format(Locale.ROOT, "%d games on %d workers in %.1f s (%.2f games/s, %.1f moves/s)",
+				games, numWorkers, seconds, games / seconds, server.getMoveTimes().getCount() / seconds));
+		System.out.println("Server: " + server.getStandings());
+		System.out.println("Sessions: " + client.getStandings());
+		System.out.println(client.getThinkTimes().summary("think"));
+		System.out.println(client.getReplyTimes().summary("reply"));
+		System.out.println(server.getMoveTimes().summary("move"));
+	}
+}
@@ -0,0 +1,655 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Vector;
+
+/* Class:
+ *   ImcsServer
+ * Description:
+ *   A stand-in for the IMCS server, for testing clients and measuring their
+ *   speed without the real server. It speaks the part of the protocol that
+ *   Client and ImcsSession use:
+ *
+ *     100 imcs 2.5                 Sent on connecting.
+ *     me NAME PASSWORD             Log in (any password): 201.
+ *     list                         211, then a line per offered game, then ".".
+ *     offer [W|B]                  103 with the game id, then 105 (White) or
+ *                                  106 (Black) once the game is accepted.
+ *     accept ID [W|B]              105 or 106, or 408 if there is no such offer.
+ *     resume ID W|B PLIES          Rejoin a game being played after losing the
+ *                                  connection (not part of the real protocol).
+ *                                  105 or 106 with the id, color and number of
+ *                                  moves played, then "! move" for each move
+ *                                  after the first PLIES; or 408.
+ *     quit                         200, and the connection is closed.
+ *
+ *   During a game, the player on move is sent the board and a "?" line with
+ *   both clocks, and answers with a move such as "b2-b3". The move is checked
+ *   with State, charged to the mover's clock and sent to the opponent as
+ *   "! b2-b3"; the mover is sent the new board at once, which clients can take
+ *   as an acknowledgement. The game ends with "= W wins", "= B wins" or
+ *   "= draw" to both players, by the rules of the game, a clock running out,
+ *   an illegal move or a player leaving (the reason follows the result), and
+ *   then both connections are closed.
+ *
+ *   A player whose connection is lost may resume the game from another one.
+ *   When it is that player's turn, the server waits up to resumeWait seconds
+ *   (but no longer than the player's clock, which keeps running) before
+ *   deciding the player has left.
+ *
+ *   With autoPair, an offer is accepted by the next compatible offer, so that
+ *   bots which only offer games (e.g. MultiClient -offer N) play each other.
+ *   Each connection has a thread of its own; the thread of the player who
+ *   accepts runs the game. The time from each "?" to the move that answers it
+ *   is recorded (see getMoveTimes).
+ */
+public class ImcsServer implements Runnable {
+	public static final String VERSION = "imcs 2.5";
+	private static final String LINE_ENDING = "\r\n";
+
+	/* Class:
+	 *   Offer
+	 * Description:
+	 *   A game offered by a connection, waiting to be accepted, or a connection
+	 *   waiting to rejoin a game being played. The connection's thread waits on
+	 *   it until the game is over.
+	 */
+	private static class Offer {
+		int id;            // Game id.
+		Connection owner;  // The connection that offered (or is rejoining) the game.
+		char color;        // The color the owner asked for, or '?'.
+		int plies;         // When rejoining, the number of moves the owner has.
+		boolean done;      // The game has been played (or abandoned).
+
+		Offer(int id, Connection owner, char color) {
+			this.id = id;
+			this.owner = owner;
+			this.color = color;
+			done = false;
+		}
+
+		synchronized void finish() {
+			done = true;
+			notifyAll();
+		}
+
+		synchronized void waitUntilDone() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+	}
+
+	private ServerSocket listener;              // Accepts connections.
+	private double gameClock;                   // Seconds on each player's clock.
+	private boolean autoPair;                   // Pair offers with each other.
+	private boolean verbose;                    // Print a line for each game played.
+	private double resumeWait;                  // Seconds to wait for a player who has lost the connection.
+	private LinkedHashMap<Integer, Offer> offers; // Offers waiting for acceptance, by game id (guards the next three too).
+	private int nextGameId;                     // Id of the next game offered.
+	private HashSet<Integer> playing;           // Ids of the games being played.
+	private HashMap<Integer, Offer> rejoins;    // Connections waiting to rejoin a game, by rejoinKey.
+	private LatencyRecorder moveTimes;          // Time from each "?" to its move.
+	private int whiteWins;                      // Games won by White.
+	private int blackWins;                      // Games won by Black.
+	private int draws;                          // Games drawn.
+	private volatile boolean closed;            // Set by close.
+
+	/* Function:
+	 *   ImcsServer
+	 * Description:
+	 *   Constructor. Listens on the loopback address; run accepts connections.
+	 * Inputs:
+	 *        port : Port to listen on, or 0 for any free port (see getPort).
+	 *   gameClock : Seconds on each player's clock for the whole game.
+	 *    autoPair : Pair offers with each other.
+	 *  resumeWait : Seconds to wait for a player who has lost the connection
+	 *               to resume the game, or 0 to end the game at once.
+	 *     verbose : Print a line for each game played.
+	 * Outputs:
+	 *   A new ImcsServer.
+	 * Return values:
+	 *   None.
+	 */
+	public ImcsServer(int port, double gameClock, boolean autoPair, double resumeWait, boolean verbose)
+			throws IOException {
+		listener = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+		this.gameClock = gameClock;
+		this.autoPair = autoPair;
+		this.resumeWait = resumeWait;
+		this.verbose = verbose;
+		offers = new LinkedHashMap<Integer, Offer>();
+		nextGameId = 1;
+		playing = new HashSet<Integer>();
+		rejoins = new HashMap<Integer, Offer>();
+		moveTimes = new LatencyRecorder();
+		whiteWins = 0;
+		blackWins = 0;
+		draws = 0;
+		closed = false;
+	}
+
+	/* Returns the port the server listens on. */
+	public int getPort() {
+		return listener.getLocalPort();
+	}
+
+	/* Accepts connections, each served on a thread of its own, until close. */
+	public void run() {
+		while (!closed) {
+			try {
+				Socket socket = listener.accept();
+				socket.setTcpNoDelay(true);
+				Thread thread = new Thread(new Connection(socket), "imcs-connection");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (!closed) {
+					System.out.println("imcs server: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/* Stops accepting connections. Games being played go on. */
+	public void close() throws IOException {
+		closed = true;
+		listener.close();
+	}
+
+	/* Returns the time from each "?" to the move that answered it: the client's
+	 * thinking time plus a round trip. */
+	public LatencyRecorder getMoveTimes() {
+		return moveTimes;
+	}
+
+	/* Returns the results of the games played so far. */
+	public synchronized String getStandings() {
+		return "White won " + whiteWins + ", Black won " + blackWins + ", drawn " + draws;
+	}
+
+	/* Counts a result line ("= W wins..." etc.). */
+	private synchronized void countResult(String result) {
+		if (result.startsWith("= W wins")) {
+			whiteWins++;
+		} else if (result.startsWith("= B wins")) {
+			blackWins++;
+		} else {
+			draws++;
+		}
+	}
+
+	/* Class:
+	 *   Connection
+	 * Description:
+	 *   One client's connection: reads its commands, and plays its games.
+	 */
+	private class Connection implements Runnable {
+		private Socket socket;      // The connection.
+		private BufferedReader in;  // Lines from the client.
+		private Writer out;         // Lines to the client.
+		private String user;        // Name logged in with, or null.
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+			user = null;
+		}
+
+		public void run() {
+			try {
+				serve();
+			} catch (IOException e) {
+				// The client has gone; nothing more to do.
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				close();
+			}
+		}
+
+		/* Reads and carries out commands until the client plays a game, quits
+		 * or leaves. */
+		private void serve() throws IOException, InterruptedException {
+			send("100 " + VERSION);
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				switch (words[0]) {
+				case "":
+					break;
+				case "me":
+					if (words.length < 3) {
+						send("400 usage: me NAME PASSWORD");
+					} else {
+						user = words[1];
+						send("201 hello " + user);
+					}
+					break;
+				case "list":
+					list();
+					break;
+				case "offer":
+					if (user == null) {
+						send("402 log in first");
+					} else {
+						offer(colorArgument(words, 1));
+						return;
+					}
+					break;
+				case "accept":
+					if (user == null) {
+						send("402 log in first");
+					} else if (words.length < 2 || !words[1].matches("\\d+")) {
+						send("400 usage: accept ID [W|B]");
+					} else if (accept(Integer.parseInt(words[1]), colorArgument(words, 2))) {
+						return;
+					}
+					break;
+				case "resume":
+					if (user == null) {
+						send("402 log in first");
+					} else if (words.length < 4 || !words[1].matches("\\d+") || colorArgument(words, 2) == '?'
+							|| !words[3].matches("\\d+")) {
+						send("400 usage: resume ID W|B PLIES");
+					} else if (resume(Integer.parseInt(words[1]), colorArgument(words, 2),
+							Integer.parseInt(words[3]))) {
+						return;
+					}
+					break;
+				case "quit":
+					send("200 bye");
+					return;
+				default:
+					send("401 unknown command: " + words[0]);
+					break;
+				}
+			}
+		}
+
+		/* Sends the offered games, in the format Client.list reads. */
+		private void list() throws IOException {
+			StringBuilder lines = new StringBuilder();
+			int n = 0;
+			synchronized (offers) {
+				for (Offer offer : offers.values()) {
+					String clock = formatClock(gameClock);
+					lines.append(" ").append(offer.id).append(' ').append(offer.owner.user).append(' ')
+							.append(offer.color).append(' ').append(clock).append(' ').append(clock)
+							.append(" 1500 [offer]").append(LINE_ENDING);
+					n++;
+				}
+			}
+			send("211 " + n + " games");
+			out.write(lines.toString());
+			send(".");
+		}
+
+		/* Offers a game (or, with autoPair, accepts a waiting one) and waits
+		 * for it to be played. The 103 line gives the id the game will be
+		 * played under, which for a paired offer is the waiting one's. */
+		private void offer(char color) throws IOException, InterruptedException {
+			Offer match = null;
+			Offer offer = null;
+			synchronized (offers) {
+				if (autoPair) {
+					Iterator<Offer> waiting = offers.values().iterator();
+					while (waiting.hasNext()) {
+						Offer other = waiting.next();
+						if (color == '?' || other.color == '?' || other.color != color) {
+							waiting.remove();
+							match = other;
+							break;
+						}
+					}
+				}
+				if (match == null) {
+					int id = nextGameId++;
+					offer = new Offer(id, this, color);
+					offers.put(id, offer);
+				}
+				send("103 " + (match != null ? match.id : offer.id) + " game waiting for offer acceptance");
+			}
+			if (match != null) {
+				startGame(match, color);
+			} else {
+				offer.waitUntilDone();
+			}
+		}
+
+		/* Accepts an offered game and plays it. Returns false if there is no
+		 * such offer. */
+		private boolean accept(int id, char color) throws IOException {
+			Offer offer;
+			synchronized (offers) {
+				offer = offers.remove(id);
+			}
+			if (offer == null) {
+				send("408 no such game: " + id);
+				return false;
+			}
+			startGame(offer, color);
+			return true;
+		}
+
+		/* Asks to rejoin a game being played, and waits for it to be over.
+		 * Returns false if there is no such game. */
+		private boolean resume(int id, char color, int plies) throws IOException, InterruptedException {
+			Offer rejoin = new Offer(id, this, color);
+			rejoin.plies = plies;
+			synchronized (offers) {
+				if (!playing.contains(id)) {
+					send("408 no game to resume: " + id);
+					return false;
+				}
+				Offer earlier = rejoins.put(rejoinKey(id, color == 'W' ? 0 : 1), rejoin);
+				if (earlier != null) {
+					earlier.finish();
+				}
+				offers.notifyAll();
+			}
+			rejoin.waitUntilDone();
+			return true;
+		}
+
+		/* Plays the offered game against its owner, on this thread, and then
+		 * lets the owner's thread go. */
+		private void startGame(Offer offer, char color) throws IOException {
+			try {
+				char ownerColor = offer.color;
+				if (ownerColor == '?') {
+					ownerColor = (color == 'W') ? 'B' : 'W';
+				}
+				Connection white = (ownerColor == 'W') ? offer.owner : this;
+				Connection black = (ownerColor == 'W') ? this : offer.owner;
+				white.send("105 " + offer.id + " W");
+				black.send("106 " + offer.id + " B");
+				play(offer.id, white, black);
+			} finally {
+				offer.owner.close();
+				offer.finish();
+			}
+		}
+
+		/* Sends a line. */
+		void send(String text) throws IOException {
+			synchronized (out) {
+				out.write(text + LINE_ENDING);
+				out.flush();
+			}
+		}
+
+		/* Reads the next non-empty line, waiting at most the given time. Returns
+		 * null if the client has left. */
+		String readLine(long timeoutMillis) throws IOException {
+			socket.setSoTimeout((int)Math.max(Math.min(timeoutMillis, Integer.MAX_VALUE), 1));
+			String line;
+			do {
+				line = in.readLine();
+			} while (line != null && line.trim().isEmpty());
+			return (line == null) ? null : line.trim();
+		}
+
+		/* Closes the connection. */
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Closed anyway.
+			}
+		}
+	}
+
+	/* Function:
+	 *   play
+	 * Description:
+	 *   Plays a game between two connections, as described for the class.
+	 * Inputs:
+	 *       id : The game id.
+	 *    white : The White player.
+	 *    black : The Black player.
+	 * Outputs:
+	 *   The game's moves and result to both players.
+	 * Return values:
+	 *   None.
+	 */
+	private void play(int id, Connection white, Connection black) {
+		Connection[] players = { white, black };
+		String[] users = { white.user, black.user };
+		Vector<String> moves = new Vector<String>();
+		Vector<Offer> rejoined = new Vector<Offer>();
+		State state = new State();
+		double[] clocks = { gameClock, gameClock };
+		String result = null;
+		synchronized (offers) {
+			playing.add(id);
+		}
+		while (result == null) {
+			int side = state.whiteOnMove() ? 0 : 1;
+			char moverColor = (side == 0) ? 'W' : 'B';
+			char opponentColor = (side == 0) ? 'B' : 'W';
+			for (int p = 0; p < 2; p++) {
+				rejoin(id, p, players, moves, rejoined, 0);
+			}
+			long start = System.nanoTime();
+			String move = null;
+			while (move == null && result == null) {
+				double left = clocks[side] - (System.nanoTime() - start) / 1e9;
+				try {
+					if (left <= 0) {
+						throw new SocketTimeoutException();
+					}
+					players[side].send(boardText(state) + "? " + formatClock(left) + " " + formatClock(clocks[1 - side]));
+					move = players[side].readLine((long)Math.ceil(left * 1000.0));
+				} catch (SocketTimeoutException e) {
+					result = "= " + opponentColor + " wins on time";
+				} catch (IOException e) {
+					move = null;
+				}
+				if (move == null && result == null) {
+					players[side].close();
+					long waitMillis = (long)(Math.min(resumeWait, Math.max(left, 0.0)) * 1000.0);
+					if (!rejoin(id, side, players, moves, rejoined, waitMillis)) {
+						result = "= " + opponentColor + " wins (" + moverColor + " left)";
+					}
+				}
+			}
+			if (result != null) {
+				break;
+			}
+			long elapsed = System.nanoTime() - start;
+			moveTimes.add(elapsed);
+			clocks[side] -= elapsed / 1e9;
+			if (clocks[side] < 0) {
+				result = "= " + opponentColor + " wins on time";
+				break;
+			}
+			try {
+				state = state.makeImcsMove(move);
+			} catch (Exception e) {
+				result = "= " + opponentColor + " wins (illegal move " + move + " by " + moverColor + ")";
+				break;
+			}
+			moves.add(move);
+			try {
+				players[side].send(boardText(state));
+			} catch (IOException e) {
+				// Noticed on that player's next turn.
+			}
+			try {
+				players[1 - side].send("! " + move);
+			} catch (IOException e) {
+				// Noticed on that player's next turn; the move is sent again on resuming.
+			}
+			if (state.gameOver()) {
+				result = state.whiteWins() ? "= W wins" : (state.blackWins() ? "= B wins" : "= draw");
+			}
+		}
+
+		synchronized (offers) {
+			playing.remove(id);
+			for (int p = 0; p < 2; p++) {
+				Offer late = rejoins.remove(rejoinKey(id, p));
+				if (late != null) {
+					rejoined.add(late);
+				}
+			}
+		}
+		countResult(result);
+		for (Connection player : players) {
+			try {
+				player.send(result);
+			} catch (IOException e) {
+				// That player has gone.
+			}
+			player.close();
+		}
+		for (Offer rejoin : rejoined) {
+			rejoin.owner.close();
+			rejoin.finish();
+		}
+		if (verbose) {
+			System.out.println("game " + id + ": " + users[0] + " (W) vs " + users[1] + " (B): "
+					+ result + " after " + moves.size() + " plies");
+		}
+	}
+
+	/* Function:
+	 *   rejoin
+	 * Description:
+	 *   Lets a player who has lost the connection back into a game: takes the
+	 *   connection waiting to rejoin for that side, if one arrives within the
+	 *   given time, and sends it the moves it has missed.
+	 * Inputs:
+	 *              id : The game id.
+	 *            side : 0 for White, 1 for Black.
+	 *         players : The game's connections, by side.
+	 *           moves : The moves played so far.
+	 *        rejoined : Rejoins taken, to let go when the game is over.
+	 *   timeoutMillis : How long to wait, or 0 to take only one already waiting.
+	 * Outputs:
+	 *   players[side] is the new connection, if there is one.
+	 * Return values:
+	 *   true if the player has rejoined.
+	 */
+	private boolean rejoin(int id, int side, Connection[] players, Vector<String> moves, Vector<Offer> rejoined,
+			long timeoutMillis) {
+		Offer rejoin;
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		synchronized (offers) {
+			while ((rejoin = rejoins.remove(rejoinKey(id, side))) == null) {
+				long left = (deadline - System.nanoTime()) / 1000000L;
+				if (left <= 0) {
+					return false;
+				}
+				try {
+					offers.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		players[side].close();
+		players[side] = rejoin.owner;
+		rejoined.add(rejoin);
+		try {
+			rejoin.owner.send((side == 0 ? "105 " : "106 ") + id + " " + (side == 0 ? 'W' : 'B') + " " + moves.size());
+			for (int i = Math.min(rejoin.plies, moves.size()); i < moves.size(); i++) {
+				rejoin.owner.send("! " + moves.elementAt(i));
+			}
+		} catch (IOException e) {
+			// Lost again; noticed on that player's next turn.
+		}
+		return true;
+	}
+
+	/* Returns the key of a game's side in rejoins. */
+	private static int rejoinKey(int id, int side) {
+		return 2 * id + side;
+	}
+
+	/* Returns the board as sent before each "?" line. */
+	private static String boardText(State state) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		state.writeBoard(new PrintStream(bytes));
+		return bytes.toString().replace("\n", LINE_ENDING) + LINE_ENDING;
+	}
+
+	/* Formats seconds on a clock as m:ss.sss. */
+	private static String formatClock(double seconds) {
+		seconds = Math.max(seconds, 0.0);
+		int minutes = (int)(seconds / 60);
+		return String.format(Locale.ROOT, "%d:%06.3f", minutes, seconds - minutes * 60);
+	}
+
+	/* Returns the color given as words[index] ('W' or 'B'), or '?' if there is
+	 * none. */
+	private static char colorArgument(String[] words, int index) {
+		if (words.length > index) {
+			char color = Character.toUpperCase(words[index].charAt(0));
+			if (color == 'W' || color == 'B') {
+				return color;
+			}
+		}
+		return '?';
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Runs the server until it is killed.
+	 *   Usage: java ImcsServer [-port N] [-clock seconds per game] [-pair]
+	 *          [-resume seconds]
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, port 3589,
+	 *          5 minutes a side, no pairing of offers, and 30 seconds to
+	 *          resume a game after losing the connection.
+	 * Outputs:
+	 *   A line for each game played on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = 3589;
+		double clock = 300.0;
+		boolean pair = false;
+		double resumeWait = 30.0;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-port":
+				port = Integer.parseInt(args[++i]);
+				break;
+			case "-clock":
+				clock = Double.parseDouble(args[++i]);
+				break;
+			case "-pair":
+				pair = true;
+				break;
+			case "-resume":
+				resumeWait = Double.parseDouble(args[++i]);
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		ImcsServer server = new ImcsServer(port, clock, pair, resumeWait, true);
+		System.out.println("imcs stand-in listening on port " + server.getPort());
+		server.run();
+	}
+}
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+
+/* Class:
+ *   ImcsSession
+ * Description:
+ *   One game on the IMCS server, played over a non-blocking connection that a
+ *   MultiClient runs alongside many others. The session is a state machine
+ *   driven by the lines the server sends (see Client for the protocol):
+ *
+ *     BANNER   : Waits for the server's version line, then logs in.
+ *     LOGIN    : Waits for the log in to be accepted, then sends the offer or
+ *                accept command.
+ *     STARTING : Waits for the game to start (105: White, 106: Black).
+ *     PLAYING  : Makes the opponent's moves ("! a5-a4"). When the server asks
+ *                for a move ("?"), sets our clock to the time the server gives
+ *                and hands the search to the MultiClient's worker pool.
+ *     THINKING : Waits for the search, then sends the move and goes back to
+ *                PLAYING.
+ *     DONE     : The game is over ("="), or the session failed. The connection
+ *                is closed.
+ *
+ *   Everything but the search runs on the MultiClient's selector thread. While
+ *   a worker searches, the session's State belongs to the worker; the server
+ *   sends nothing that changes it until the move has been made.
+ */
+public class ImcsSession implements Runnable {
+	static final int BANNER = 0;
+	static final int LOGIN = 1;
+	static final int STARTING = 2;
+	static final int PLAYING = 3;
+	static final int THINKING = 4;
+	static final int DONE = 5;
+
+	private static final String VERSION = "imcs 2.5";
+	private static final String LINE_ENDING = "\r\n";
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int BUFFER_BYTES = 4096;
+
+	private MultiClient client;         // The client running this session.
+	private int id;                     // Number of the session, for the log.
+	private String username;            // IMCS account.
+	private String password;            // Its password.
+	private String command;             // The offer or accept command that starts the game.
+	private SocketChannel channel;      // The connection to the server.
+	private SelectionKey key;           // The channel's registration with the client's selector.
+	private ByteBuffer input;           // Bytes read but not yet split into lines.
+	private StringBuilder line;         // The line being read.
+	private LinkedList<ByteBuffer> output; // Bytes waiting to be sent.
+	private int phase;                  // BANNER, LOGIN, STARTING, PLAYING, THINKING or DONE.
+	private State state;                // The game.
+	private char color;                 // 'W' or 'B' once the game has started, else '?'.
+	private volatile String foundMove;  // The move found by the last search, or null if there was none.
+	private volatile long thinkTime;    // How long the last search took, in nanoseconds.
+	private long promptTime;            // System.nanoTime when the server last asked for a move.
+	private String result;              // Why the session ended, once it has.
+
+	/* Function:
+	 *   ImcsSession
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *     client : The client that will run the session.
+	 *         id : Number of the session, for the log.
+	 *      state : The starting position, with the search options and
+	 *              transposition table to use.
+	 *   username : IMCS account.
+	 *   password : Its password.
+	 *    command : The command that starts the game, e.g. "offer", "offer W"
+	 *              or "accept 7140".
+	 * Outputs:
+	 *   A new ImcsSession, not yet connected.
+	 * Return values:
+	 *   None.
+	 */
+	public ImcsSession(MultiClient client, int id, State state, String username, String password, String command) {
+		this.client = client;
+		this.id = id;
+		this.state = state;
+		this.username = username;
+		this.password = password;
+		this.command = command;
+		channel = null;
+		key = null;
+		input = ByteBuffer.allocate(BUFFER_BYTES);
+		line = new StringBuilder();
+		output = new LinkedList<ByteBuffer>();
+		phase = BANNER;
+		color = '?';
+		foundMove = null;
+		thinkTime = 0;
+		promptTime = 0;
+		result = null;
+	}
+
+	/* Starts connecting to the server, with the channel registered on the given
+	 * selector. */
+	void connect(Selector selector, InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		if (channel.connect(address)) {
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		} else {
+			key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+		}
+	}
+
+	/* Function:
+	 *   handle
+	 * Description:
+	 *   Carries out the I/O that the selector found the channel ready for.
+	 *   Called on the selector thread.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   Lines read are acted on, and waiting output is sent.
+	 * Return values:
+	 *   None.
+	 */
+	void handle() throws IOException {
+		if (key.isConnectable()) {
+			channel.finishConnect();
+			key.interestOps(SelectionKey.OP_READ);
+			return;
+		}
+		if (key.isReadable()) {
+			read();
+		}
+		if (phase != DONE && key.isValid() && key.isWritable()) {
+			flush();
+		}
+	}
+
+	/* Reads what the server has sent and acts on each whole line. */
+	private void read() throws IOException {
+		int n = channel.read(input);
+		if (n < 0) {
+			finish("connection closed by server");
+			return;
+		}
+		input.flip();
+		while (input.hasRemaining() && phase != DONE) {
+			char c = (char)(input.get() & 0xFF);
+			if (c == '\n') {
+				String text = line.toString();
+				line.setLength(0);
+				handleLine(text);
+			} else if (c != '\r') {
+				line.append(c);
+			}
+		}
+		input.clear();
+	}
+
+	/* Function:
+	 *   handleLine
+	 * Description:
+	 *   Acts on one line from the server, according to the session's phase.
+	 * Inputs:
+	 *   text : The line, without its line ending.
+	 * Outputs:
+	 *   The session may send a line, start a search or change phase.
+	 * Return values:
+	 *   None.
+	 */
+	private void handleLine(String text) throws IOException {
+		switch (phase) {
+		case BANNER:
+			if (!isResponse(text)) {
+				return;
+			}
+			if (!Client.responseString(text).equals(VERSION)) {
+				finish("imcs version mismatch: " + text);
+				return;
+			}
+			send("me " + username + " " + password);
+			phase = LOGIN;
+			break;
+		case LOGIN:
+			if (!isResponse(text)) {
+				return;
+			}
+			if (!Client.responseCode(text).equals("201")) {
+				finish("log in failed: " + text);
+				return;
+			}
+			send(command);
+			phase = STARTING;
+			break;
+		case STARTING:
+			if (!isResponse(text)) {
+				return;
+			}
+			String code = Client.responseCode(text);
+			if (code.equals("103")) {
+				client.log(this, text);
+			} else if (code.equals("105") || code.equals("106")) {
+				color = code.equals("105") ? 'W' : 'B';
+				phase = PLAYING;
+				client.log(this, "playing " + (color == 'W' ? "White" : "Black"));
+			} else {
+				finish(command + " failed: " + text);
+			}
+			break;
+		case PLAYING:
+		case THINKING:
+			if (text.isEmpty()) {
+				return;
+			}
+			if (text.charAt(0) == '!') {
+				String move = text.substring(1).trim();
+				try {
+					state = state.makeImcsMove(move);
+				} catch (Exception e) {
+					finish("bad move from server: " + move + " (" + e.getMessage() + ")");
+				}
+			} else if (text.charAt(0) == '?') {
+				if (phase == PLAYING) {
+					if (onMove()) {
+						promptTime = System.nanoTime();
+						double clock = Client.parseClock(text);
+						if (clock >= 0) {
+							state.getTimeManager().setRemaining(clock);
+						}
+						phase = THINKING;
+						client.search(this);
+					} else {
+						finish("asked for a move out of turn");
+					}
+				}
+			} else if (text.charAt(0) == '=') {
+				finish(text);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/* Returns true if the line is a response: a 3 digit code, then text. */
+	private static boolean isResponse(String text) {
+		if (text.length() < 4) {
+			return false;
+		}
+		for (int i = 0; i < 3; i++) {
+			if (!Character.isDigit(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Returns true if it is this session's turn to move. */
+	private boolean onMove() {
+		return !state.gameOver() && (color == 'W') == state.whiteOnMove();
+	}
+
+	/* Searches for a move. Run on a worker thread of the MultiClient. The time
+	 * spent waiting for a free worker since the "?" is taken off our clock
+	 * first, since the server's clock has been running all along. */
+	public void run() {
+		long start = System.nanoTime();
+		TimeManager tm = state.getTimeManager();
+		tm.setRemaining(tm.getRemaining() - (start - promptTime) / 1e9);
+		String move;
+		try {
+			move = state.getImcsMove();
+		} catch (Exception e) {
+			move = null;
+		}
+		thinkTime = System.nanoTime() - start;
+		foundMove = move;
+		client.searchDone(this);
+	}
+
+	/* Sends the move found by the search and makes it. Called on the selector
+	 * thread once the search is done. */
+	void moveFound() throws IOException {
+		if (phase != THINKING) {
+			return;  // The game ended while searching (e.g. on time).
+		}
+		String move = foundMove;
+		if (move == null) {
+			finish("no move found");
+			return;
+		}
+		send(move);
+		client.recordMove(thinkTime, System.nanoTime() - promptTime);
+		try {
+			state = state.makeImcsMove(move);
+		} catch (Exception e) {
+			finish("could not make own move " + move + " (" + e.getMessage() + ")");
+			return;
+		}
+		client.log(this, "played " + move);
+		phase = PLAYING;
+	}
+
+	/* Queues a line to send to the server and sends what it can now. */
+	private void send(String text) throws IOException {
+		output.add(ByteBuffer.wrap((text + LINE_ENDING).getBytes(ASCII)));
+		flush();
+	}
+
+	/* Sends as much waiting output as the channel takes, and asks the selector
+	 * to say when it can take more if some is left. */
+	private void flush() throws IOException {
+		while (!output.isEmpty()) {
+			ByteBuffer head = output.getFirst();
+			channel.write(head);
+			if (head.hasRemaining()) {
+				break;
+			}
+			output.removeFirst();
+		}
+		key.interestOps(output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/* Function:
+	 *   finish
+	 * Description:
+	 *   Ends the session, closing the connection, and tells the client.
+	 * Inputs:
+	 *   why : The server's game over line, or what went wrong.
+	 * Outputs:
+	 *   The session is DONE.
+	 * Return values:
+	 *   None.
+	 */
+	void finish(String why) {
+		if (phase == DONE) {
+			return;
+		}
+		phase = DONE;
+		result = why;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// Closed anyway.
+		}
+		client.sessionDone(this);
+	}
+
+	/* Function:
+	 *   getOutcome
+	 * Description:
+	 *   Gives the result of a finished game for this side, from the server's game
+	 *   over line ("= W wins", "= B wins" or "= draw"), or from the position if
+	 *   the line does not say.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *    1 : This side won.
+	 *    0 : The game was drawn.
+	 *   -1 : This side lost.
+	 *   -2 : The game did not finish (the session failed).
+	 */
+	int getOutcome() {
+		if (result == null || color == '?') {
+			return -2;
+		}
+		char winner;
+		if (result.startsWith("=") && result.contains("W wins")) {
+			winner = 'W';
+		} else if (result.startsWith("=") && result.contains("B wins")) {
+			winner = 'B';
+		} else if (result.startsWith("=") && result.contains("draw")) {
+			return 0;
+		} else if (state.gameOver()) {
+			winner = state.whiteWins() ? 'W' : (state.blackWins() ? 'B' : '?');
+			if (winner == '?') {
+				return 0;
+			}
+		} else {
+			return -2;
+		}
+		return (winner == color) ? 1 : -1;
+	}
+
+	/* Returns the session's number. */
+	int getId() {
+		return id;
+	}
+
+	/* Returns why the session ended, or null if it has not. */
+	String getResult() {
+		return result;
+	}
+
+	/* Returns the session's phase (BANNER to DONE). */
+	int getPhase() {
+		return phase;
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/* Class:
+ *   LatencyRecorder
+ * Description:
+ *   Collects durations (e.g. the time from asking for a move to getting it)
+ *   from any number of threads, and summarizes them as a count, mean and
+ *   percentiles.
+ */
+public class LatencyRecorder {
+	private long[] samples;  // Durations in nanoseconds, in the order added.
+	private int count;       // Number of samples.
+
+	public LatencyRecorder() {
+		samples = new long[64];
+		count = 0;
+	}
+
+	/* Adds a duration in nanoseconds. */
+	public synchronized void add(long nanos) {
+		if (count == samples.length) {
+			samples = Arrays.copyOf(samples, count * 2);
+		}
+		samples[count++] = nanos;
+	}
+
+	/* Returns the number of durations added. */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/* Function:
+	 *   summary
+	 * Description:
+	 *   Describes the durations added so far in milliseconds, e.g.
+	 *     think: n 240, mean 48.2, p50 50.1, p90 51.0, p99 55.3, max 61.9 ms
+	 * Inputs:
+	 *   name : What the durations are.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The summary, on one line.
+	 */
+	public synchronized String summary(String name) {
+		if (count == 0) {
+			return name + ": n 0";
+		}
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		double total = 0.0;
+		for (int i = 0; i < count; i++) {
+			total += sorted[i];
+		}
+		return String.format(Locale.ROOT, "%s: n %d, mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f ms",
+				name, count, total / count / 1e6, percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6,
+				percentile(sorted, 99) / 1e6, sorted[count - 1] / 1e6);
+	}
+
+	/* Returns the nearest-rank percentile of sorted samples. */
+	private static long percentile(long[] sorted, double percent) {
+		int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+	}
+}
@@ -1,4 +1,7 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Vector;
@@ -11,11 +14,56 @@ public class MiniChessPlayer {
 	public static String pass = "foobar";
 	public static Client connection = null;
 	public static Scanner in = new Scanner(System.in);
+	public static SearchOptions searchOptions = new SearchOptions();
 	/**
-	 * @param args
+	 * @param args [-threads N] [-time seconds per move] [-clock seconds per game] [-hash MB] [-ttfile file] [-tb directory] [-stats file] [-ponder] [-engine]
 	 * @throws Exception 
 	 */
 	public static void main(String[] args) throws Exception {
+		boolean engine = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-threads":
+				searchOptions.threads = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				searchOptions.moveTimeLimit = Double.parseDouble(args[++i]);
+				break;
+			case "-clock":
+				searchOptions.gameClock = Double.parseDouble(args[++i]);
+				break;
+			case "-hash":
+				searchOptions.hashMB = Integer.parseInt(args[++i]);
+				break;
+			case "-ttfile":
+				searchOptions.tableFile = args[++i];
+				break;
+			case "-tb":
+				searchOptions.tablebaseDir = args[++i];
+				break;
+			case "-stats":
+				searchOptions.statsFile = args[++i];
+				break;
+			case "-ponder":
+				searchOptions.ponder = true;
+				break;
+			case "-engine":
+				engine = true;
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		if (engine) {
+			// Take commands from standard in (see Engine) instead of the menu.
+			State start = new State();
+			start.setSearchOptions(searchOptions);
+			loadTable(start);
+			new Engine(start, System.in, System.out).listen();
+			saveTable(start);
+			return;
+		}
 		Game selectedGame = mainMenu();
 		if (selectedGame != null) {
 			if (selectedGame.id == -1) {
@@ -52,6 +100,7 @@ public class MiniChessPlayer {
 			connection = new Client(server,port,user,pass);
 			// prompt for game id
 			availableGames = connection.list();
+			AsyncLogger.getStandardOut().flush();
 			System.out.print("Enter id of game to join: ");
 			input = in.nextLine();
 			int gameId;
@@ -99,6 +148,7 @@ public class MiniChessPlayer {
 			connection = new Client(server,port,user,pass);
 			// auto-accept or offer
 			availableGames = connection.list();
+			AsyncLogger.getStandardOut().flush();
 			if (availableGames.size() == 0) {
 				// No game offers currently available to accept. Create one!
 				System.out.println("No games available to join. Offering new game.");
@@ -136,9 +186,13 @@ public class MiniChessPlayer {
 	
 	public static void playVsImcs(Game selectedGame) throws Exception {
 		State gamestate = new State();
+		gamestate.setSearchOptions(searchOptions);
+		loadTable(gamestate);
 		char myColor;
 		String gameId = String.valueOf(selectedGame.id);
 		String opponent = selectedGame.opponent;
+		Ponder ponder = null;       // Search running on the opponent's time.
+		String ponderedMove = null; // Move found by pondering, on a ponder hit.
 		if (gameId.equals("0")) {
 			// offer new game.
 			if (selectedGame.color == 'B') {
@@ -158,68 +212,165 @@ public class MiniChessPlayer {
 			}
 		}
 		
-		System.out.println("My opponent: " + opponent + ".");
+		AsyncLogger log = AsyncLogger.getStandardOut();
+		log.log("My opponent: " + opponent + ".");
 		if (myColor == 'W') {
-			System.out.println("I am White!");
+			log.log("I am White!");
 		} else {
-			System.out.println("I am Black!");
+			log.log("I am Black!");
 		}
 		
-		// play game	
-		gamestate.writeBoard();
+		// play game, keeping every position so a lost connection can be resumed
+		Vector<State> history = new Vector<State>();
+		history.add(gamestate);
+		String serverResult = null;
+		log.log(boardText(gamestate));
 		while (!gamestate.gameOver()) {
-			if (myColor == 'W') {
-				if (gamestate.whiteOnMove()) {
-					// make a move
-					String myMove = gamestate.getImcsMove();
-					System.out.println("My move: " + myMove);
+			try {
+				if ((myColor == 'W') == gamestate.whiteOnMove()) {
+					// make a move, budgeted from the clock the server gives
+					if (!connection.awaitPrompt()) {
+						serverResult = "The server ended the game.";
+						break;
+					}
+					if (connection.getClock() >= 0) {
+						gamestate.getTimeManager().setRemaining(connection.getClock());
+					}
+					String myMove = (ponderedMove != null) ? ponderedMove : gamestate.getImcsMove();
+					log.log("My move: " + myMove + " (" + gamestate.getTableStats() + ")");
 					gamestate = gamestate.makeImcsMove(myMove);
-					connection.sendMove(myMove);
-					//gamestate.writeBoard();
+					history.add(gamestate);
+					ponderedMove = null;
+					if (!connection.sendMove(myMove)) {
+						serverResult = "The server ended the game.";
+						break;
+					}
+					if (searchOptions.ponder) {
+						ponder = Ponder.start(gamestate);
+					}
 				} else {
 					// wait for opponent's move.
 					String oppMove = connection.getMove();
-					System.out.println("Black moves: " + oppMove);
-					gamestate = gamestate.makeImcsMove(oppMove);
-					//gamestate.writeBoard();
+					if (oppMove == null) {
+						serverResult = "The server ended the game.";
+						break;
+					}
+					log.log((myColor == 'W' ? "Black" : "White") + " moves: " + oppMove);
+					gamestate = makePonderedMove(gamestate, oppMove, ponder);
+					history.add(gamestate);
+					ponderedMove = finishPonder(gamestate, ponder);
+					ponder = null;
 				}
-			} else {
-				if (gamestate.blackOnMove()) {
-					// make a move
-					String myMove = gamestate.getImcsMove();
-					System.out.println("My move: " + myMove);
-					gamestate = gamestate.makeImcsMove(myMove);
-					connection.sendMove(myMove);
-					//gamestate.writeBoard();
-				} else {
-					// wait for opponent's move.
-					String oppMove = connection.getMove();
-					System.out.println("White moves: " + oppMove);
-					gamestate = gamestate.makeImcsMove(oppMove);
-					//gamestate.writeBoard();
-				}	
+			} catch (IOException e) {
+				log.log("Connection lost (" + e.getMessage() + "), resuming game " + connection.getGameId() + ".");
+				if (ponder != null) {
+					ponder.cancel();
+					ponder = null;
+				}
+				ponderedMove = null;
+				int serverPlies;
+				try {
+					serverPlies = connection.reconnect(myColor, history.size() - 1);
+				} catch (IOException lost) {
+					serverResult = lost.getMessage();
+					break;
+				}
+				// Moves the server never got are taken back and played again;
+				// moves it has that we missed are sent again by the server.
+				history.setSize(Math.min(history.size(), serverPlies + 1));
+				gamestate = history.lastElement();
+				log.log("Resumed at move " + serverPlies + ".");
 			}
-			gamestate.writeBoard();
+			log.log(boardText(gamestate));
 		}
 		connection.close();
-		System.out.println("Game over!");
-		if (gamestate.whiteWins()) {
+		saveTable(gamestate);
+		log.log("Game over!");
+		if (!gamestate.gameOver()) {
+			log.log((serverResult != null) ? serverResult : "The game was not finished.");
+		} else if (gamestate.whiteWins()) {
 			if (myColor == 'W')
-				System.out.println("I win!");
+				log.log("I win!");
 			else
-				System.out.println("I lose!");
+				log.log("I lose!");
 		} else if (gamestate.blackWins()) {
 			if (myColor == 'B')
-				System.out.println("I win!");
+				log.log("I win!");
 			else
-				System.out.println("I lose!");
+				log.log("I lose!");
 		} else {
-			System.out.println("Game is a draw.");
+			log.log("Game is a draw.");
+		}
+		log.log(connection.getAckTimes().summary("send to ack"));
+		log.close();
+	}
+	
+	/* Returns the board as writeBoard prints it, for the log. */
+	private static String boardText(State gamestate) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		gamestate.writeBoard(new PrintStream(bytes));
+		return bytes.toString().trim();
+	}
+	
+	/* Makes the opponent's move, first stopping any pondering if the move
+	 * cannot be made (e.g. the game ended instead). */
+	private static State makePonderedMove(State gamestate, String oppMove, Ponder ponder) throws Exception {
+		try {
+			return gamestate.makeImcsMove(oppMove);
+		} catch (Exception e) {
+			if (ponder != null) {
+				ponder.cancel();
+			}
+			throw e;
+		}
+	}
+	
+	/* Ends pondering once the opponent has moved. Returns the move to play on a
+	 * ponder hit, or null if the move must be searched for as usual. */
+	private static String finishPonder(State gamestate, Ponder ponder) {
+		if (ponder == null) {
+			return null;
+		}
+		Move move = ponder.finish(gamestate);
+		if (move == null) {
+			AsyncLogger.getStandardOut().log("Ponder miss.");
+			return null;
+		}
+		AsyncLogger.getStandardOut().log("Ponder hit.");
+		return move.toString();
+	}
+	
+	/* Warm starts the transposition table from the table file, if there is one. */
+	private static void loadTable(State gamestate) {
+		if (searchOptions.tableFile == null) {
+			return;
+		}
+		try {
+			int loaded = gamestate.getTable().load(new File(searchOptions.tableFile));
+			if (loaded >= 0) {
+				System.out.println("Loaded " + loaded + " table entries from " + searchOptions.tableFile + ".");
+			}
+		} catch (IOException e) {
+			System.out.println("Could not load " + searchOptions.tableFile + ": " + e.getMessage());
+		}
+	}
+	
+	/* Saves the transposition table to the table file for the next game. */
+	private static void saveTable(State gamestate) {
+		if (searchOptions.tableFile == null) {
+			return;
+		}
+		try {
+			gamestate.getTable().save(new File(searchOptions.tableFile));
+		} catch (IOException e) {
+			System.out.println("Could not save " + searchOptions.tableFile + ": " + e.getMessage());
 		}
 	}
 	
 	public static void playVsHuman(Game selectedGame) {
 		State gamestate = new State();
+		gamestate.setSearchOptions(searchOptions);
+		loadTable(gamestate);
 		boolean myMove;
 		if (selectedGame.color == 'B') {
 			System.out.println("You are Black!");
@@ -258,6 +409,7 @@ public class MiniChessPlayer {
 			}
 			gamestate.writeBoard();
 		}
+		saveTable(gamestate);
 		System.out.println("Game over!");
 		if (gamestate.whiteWins()) {
 			System.out.println("White wins!");
@@ -270,6 +422,8 @@ public class MiniChessPlayer {
 	
 	public static void playVsSelf() {
 		State gamestate = new State();
+		gamestate.setSearchOptions(searchOptions);
+		loadTable(gamestate);
 		gamestate.writeBoard();
 		// Play the game.
 		while (!gamestate.gameOver()) {
@@ -292,6 +446,7 @@ public class MiniChessPlayer {
 			}
 			gamestate.writeBoard();
 		}
+		saveTable(gamestate);
 		System.out.println("Game over!");
 		if (gamestate.whiteWins()) {
 			System.out.println("White wins!");
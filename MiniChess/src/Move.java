@@ -8,6 +8,18 @@ public class Move {
 	public Square from_Square;
 	public Square to_Square;
 	
+	/* The move generator and the search do not use Move objects; they pass
+	 * moves around packed into a single int:
+	 *   bits  0-4  : from square index (5 * y + x)
+	 *   bits  5-9  : to square index
+	 *   bits 10-13 : moving piece index (see Piece.WHITE_PAWN..Piece.BLACK_KING)
+	 *   bits 14-17 : captured piece index (Piece.EMPTY if nothing is captured)
+	 *   bit  18    : the moving pawn is promoted to a queen
+	 * Move objects are only built at the IMCS/human interface (see toMove). A
+	 * packed move of 0 (a move from a1 to a1) never occurs and means "no move". */
+	public static final int NONE = 0;
+	private static final int PROMOTION_FLAG = 1 << 18;
+	
 	public Move() {
 		from_Square = new Square();
 		to_Square = new Square();
@@ -16,6 +28,48 @@ public class Move {
 		from_Square = newfrom;
 		to_Square = newto;
 	}
+	/* Packs the given move details into an int (see above). */
+	public static int pack(int from, int to, int moved, int captured, boolean promotion) {
+		int move = from | (to << 5) | (moved << 10) | (captured << 14);
+		if (promotion) {
+			move |= PROMOTION_FLAG;
+		}
+		return move;
+	}
+	
+	/* Accessors for the fields of a packed move. */
+	public static int from(int move) {
+		return move & 0x1F;
+	}
+	public static int to(int move) {
+		return (move >>> 5) & 0x1F;
+	}
+	public static int moved(int move) {
+		return (move >>> 10) & 0xF;
+	}
+	public static int captured(int move) {
+		return (move >>> 14) & 0xF;
+	}
+	public static boolean isCapture(int move) {
+		return captured(move) != Piece.EMPTY;
+	}
+	public static boolean isPromotion(int move) {
+		return (move & PROMOTION_FLAG) != 0;
+	}
+	
+	/* Builds a Move object (for IMCS/human output) from a packed move. */
+	public static Move toMove(int move) {
+		int from = from(move);
+		int to = to(move);
+		return new Move(new Square(from % 5, from / 5), new Square(to % 5, to / 5));
+	}
+	
+	/* Returns true if the packed move goes between the same squares as this Move. */
+	public boolean matches(int move) {
+		return from(move) == (5 * from_Square.y) + from_Square.x
+				&& to(move) == (5 * to_Square.y) + to_Square.x;
+	}
+	
 	public String toString() {
 		String str = from_Square + "-" + to_Square;
 		return str;
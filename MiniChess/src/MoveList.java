@@ -0,0 +1,73 @@
+/* Class:
+ *   MoveList
+ * Description:
+ *   A reusable list of packed moves (see Move.pack), with a score per move for
+ *   move ordering. The search keeps one MoveList per ply, so generating moves
+ *   does not allocate anything once the lists have grown to size.
+ */
+public class MoveList {
+	public int[] moves;    // The packed moves.
+	public int[] scores;   // Ordering score for each move (higher is searched first).
+	public int size;       // Number of moves in the list.
+	
+	public MoveList() {
+		moves = new int[64];
+		scores = new int[64];
+		size = 0;
+	}
+	
+	/* Empties the list. */
+	public void clear() {
+		size = 0;
+	}
+	
+	/* Appends a packed move to the list, growing it if necessary. */
+	public void add(int move) {
+		if (size == moves.length) {
+			int[] newMoves = new int[size * 2];
+			int[] newScores = new int[size * 2];
+			System.arraycopy(moves, 0, newMoves, 0, size);
+			System.arraycopy(scores, 0, newScores, 0, size);
+			moves = newMoves;
+			scores = newScores;
+		}
+		moves[size++] = move;
+	}
+	
+	/* Swaps the highest scoring move from index i onwards into index i, so the
+	 * moves can be taken in order one at a time without sorting the whole list
+	 * (most of which is never reached after a cutoff). */
+	public void pickNext(int i) {
+		int best = i;
+		for (int j = i + 1; j < size; j++) {
+			if (scores[j] > scores[best]) {
+				best = j;
+			}
+		}
+		if (best != i) {
+			int tmpMove = moves[i];
+			int tmpScore = scores[i];
+			moves[i] = moves[best];
+			scores[i] = scores[best];
+			moves[best] = tmpMove;
+			scores[best] = tmpScore;
+		}
+	}
+	
+	/* Sorts the moves in descending order by score (insertion sort, since the
+	 * lists are short), keeping the scores in step with the moves. */
+	public void sortByScore() {
+		for (int i = 1; i < size; i++) {
+			int curMove = moves[i];
+			int curScore = scores[i];
+			int j = i;
+			while (j > 0 && scores[j-1] < curScore) {
+				moves[j] = moves[j-1];
+				scores[j] = scores[j-1];
+				j--;
+			}
+			moves[j] = curMove;
+			scores[j] = curScore;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/* Class:
+ *   MoveTables
+ * Description:
+ *   Per-square tables of where each kind of piece can go, as bitboards laid out
+ *   like State's (bit 5 * y + x). They are built once when the class is loaded,
+ *   so generating moves needs no bounds checks: a piece's targets are its table
+ *   entry masked with the occupancy, and a sliding piece's ray is cut off at the
+ *   first piece in its way with one more table lookup.
+ *
+ *   The MiniChess rules are in the tables: the bishop's quiet one-square
+ *   orthogonal step is in BISHOP_STEPS, and pawns have no double push.
+ */
+final class MoveTables {
+	/* Directions, indexing RAYS. The first four are orthogonal, the last four
+	 * diagonal. */
+	static final int NORTH = 0;
+	static final int SOUTH = 1;
+	static final int EAST = 2;
+	static final int WEST = 3;
+	static final int NORTH_EAST = 4;
+	static final int NORTH_WEST = 5;
+	static final int SOUTH_EAST = 6;
+	static final int SOUTH_WEST = 7;
+
+	private static final int WIDTH = 5;
+	private static final int HEIGHT = 6;
+	private static final int NUM_SQUARES = WIDTH * HEIGHT;
+	private static final int[] DX = { 0, 0, 1, -1, 1, -1, 1, -1 };
+	private static final int[] DY = { 1, -1, 0, 0, 1, 1, -1, -1 };
+	private static final boolean[] ASCENDING = { true, false, true, false, true, true, false, false }; // Bit index grows along the ray.
+	private static final int[] KNIGHT_DX = { 1, 2, 2, 1, -1, -2, -2, -1 };
+	private static final int[] KNIGHT_DY = { 2, 1, -1, -2, -2, -1, 1, 2 };
+
+	static final long[] KING = new long[NUM_SQUARES];              // One step in any direction.
+	static final long[] KNIGHT = new long[NUM_SQUARES];            // Knight jumps.
+	static final long[][] RAYS = new long[8][NUM_SQUARES];         // Every square from the square to the edge in a direction, not counting the square itself.
+	static final long[] BISHOP_STEPS = new long[NUM_SQUARES];      // The bishop's quiet orthogonal step.
+	static final long[][] PAWN_PUSHES = new long[2][NUM_SQUARES];  // One step forward, White first.
+	static final long[][] PAWN_CAPTURES = new long[2][NUM_SQUARES]; // Forward diagonals, White first.
+
+	static {
+		for (int sq = 0; sq < NUM_SQUARES; sq++) {
+			int x = sq % WIDTH;
+			int y = sq / WIDTH;
+			for (int dir = NORTH; dir <= SOUTH_WEST; dir++) {
+				KING[sq] |= bit(x + DX[dir], y + DY[dir]);
+				for (int n = 1; onBoard(x + n * DX[dir], y + n * DY[dir]); n++) {
+					RAYS[dir][sq] |= bit(x + n * DX[dir], y + n * DY[dir]);
+				}
+				if (dir <= WEST) {
+					BISHOP_STEPS[sq] |= bit(x + DX[dir], y + DY[dir]);
+				}
+			}
+			for (int i = 0; i < KNIGHT_DX.length; i++) {
+				KNIGHT[sq] |= bit(x + KNIGHT_DX[i], y + KNIGHT_DY[i]);
+			}
+			PAWN_PUSHES[0][sq] = bit(x, y + 1);
+			PAWN_PUSHES[1][sq] = bit(x, y - 1);
+			PAWN_CAPTURES[0][sq] = bit(x - 1, y + 1) | bit(x + 1, y + 1);
+			PAWN_CAPTURES[1][sq] = bit(x - 1, y - 1) | bit(x + 1, y - 1);
+		}
+	}
+
+	private MoveTables() {
+	}
+
+	/* Returns true if column x, row y is on the board. */
+	private static boolean onBoard(int x, int y) {
+		return x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT;
+	}
+
+	/* Returns the bitboard of column x, row y, or 0 if it is off the board. */
+	private static long bit(int x, int y) {
+		return onBoard(x, y) ? 1L << (WIDTH * y + x) : 0L;
+	}
+
+	/* Function:
+	 *   slide
+	 * Description:
+	 *   Gives the squares a sliding piece reaches in one direction: the ray up to
+	 *   and including the first occupied square, which is a capture if it holds
+	 *   an enemy piece (the caller masks off its own pieces).
+	 * Inputs:
+	 *         sq : The bit index of the square the piece slides from.
+	 *        dir : The direction (NORTH, SOUTH_WEST, ...).
+	 *   occupied : Every occupied square.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A bitboard of the squares reached.
+	 */
+	static long slide(int sq, int dir, long occupied) {
+		long ray = RAYS[dir][sq];
+		long blockers = ray & occupied;
+		if (blockers == 0) {
+			return ray;
+		}
+		int first = ASCENDING[dir] ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+		return ray ^ RAYS[dir][first];
+	}
+
+	/* Returns the squares a rook on sq reaches, own pieces included. */
+	static long rookTargets(int sq, long occupied) {
+		return slide(sq, NORTH, occupied) | slide(sq, SOUTH, occupied)
+				| slide(sq, EAST, occupied) | slide(sq, WEST, occupied);
+	}
+
+	/* Returns the squares a bishop on sq reaches diagonally, own pieces
+	 * included. */
+	static long diagonalTargets(int sq, long occupied) {
+		return slide(sq, NORTH_EAST, occupied) | slide(sq, NORTH_WEST, occupied)
+				| slide(sq, SOUTH_EAST, occupied) | slide(sq, SOUTH_WEST, occupied);
+	}
+}
@@ -0,0 +1,17 @@
+/* Class:
+ *   MoveUndo
+ * Description:
+ *   Data structure which stores everything State.makeMove changes that
+ *   cannot be recomputed from the move itself, so that State.unmakeMove
+ *   can put the board back exactly as it was.
+ */
+public class MoveUndo {
+	public int move;             // The packed move that was made (see Move.pack).
+	public long hash;            // Zobrist hash before the move.
+	public int num_turns;        // Turn counter before the move.
+	public boolean game_is_over; // Game over flag before the move.
+	public boolean white_wins;   // White wins flag before the move.
+	public boolean black_wins;   // Black wins flag before the move.
+	public int piece_square_score;   // Running piece-square evaluation total before the move.
+	public int pawn_structure_score; // Pawn structure evaluation before the move.
+}
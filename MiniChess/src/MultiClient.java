@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Class:
+ *   MultiClient
+ * Description:
+ *   Plays many IMCS games at once from one process. Each game is an
+ *   ImcsSession with a non-blocking connection of its own, and one thread runs
+ *   a Selector over all of them, so the connections cost no threads while they
+ *   wait. When a game needs a move, its search is handed to a fixed pool of
+ *   worker threads shared by all games, and the selector thread sends the move
+ *   once the search is done. All games share one transposition table, which
+ *   can be warm started and saved as in MiniChessPlayer.
+ *
+ *   With more games on move than workers, searches wait for a free worker, and
+ *   the wait is charged to that game's clock.
+ */
+public class MultiClient {
+	private Selector selector;                          // Watches every session's connection.
+	private ExecutorService workers;                    // Runs the searches.
+	private ConcurrentLinkedQueue<ImcsSession> searched; // Sessions whose search is done, for the selector thread.
+	private int running;                                // Sessions not yet done.
+	private int wins;                                   // Games won.
+	private int draws;                                  // Games drawn.
+	private int losses;                                 // Games lost.
+	private int failed;                                 // Sessions that ended without a result.
+	private boolean verbose;                            // Log every event, rather than only failures.
+	private LatencyRecorder thinkTimes;                 // Time each search took.
+	private LatencyRecorder replyTimes;                 // Time from each "?" to sending its move, waiting for a worker included.
+
+	/* Builds a client whose searches run on the given number of worker threads. */
+	public MultiClient(int numWorkers) throws IOException {
+		selector = Selector.open();
+		workers = Executors.newFixedThreadPool(Math.max(numWorkers, 1));
+		searched = new ConcurrentLinkedQueue<ImcsSession>();
+		running = 0;
+		wins = 0;
+		draws = 0;
+		losses = 0;
+		failed = 0;
+		verbose = true;
+		thinkTimes = new LatencyRecorder();
+		replyTimes = new LatencyRecorder();
+	}
+
+	/* Sets whether to log every event (the default), or only failed sessions. */
+	void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/* Starts connecting a session to the server. Call before run. */
+	void add(ImcsSession session, InetSocketAddress address) throws IOException {
+		running++;
+		try {
+			session.connect(selector, address);
+		} catch (IOException e) {
+			session.finish("could not connect: " + e.getMessage());
+		}
+	}
+
+	/* Function:
+	 *   run
+	 * Description:
+	 *   Runs every session until all of their games are over, then stops the
+	 *   worker threads.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   A line in the log for each event in each game.
+	 * Return values:
+	 *   None.
+	 */
+	public void run() throws IOException {
+		while (running > 0) {
+			selector.select();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				ImcsSession session = (ImcsSession)key.attachment();
+				if (!key.isValid()) {
+					continue;
+				}
+				try {
+					session.handle();
+				} catch (IOException e) {
+					session.finish("connection failed: " + e.getMessage());
+				}
+			}
+			ImcsSession session;
+			while ((session = searched.poll()) != null) {
+				try {
+					session.moveFound();
+				} catch (IOException e) {
+					session.finish("connection failed: " + e.getMessage());
+				}
+			}
+		}
+		workers.shutdown();
+		selector.close();
+	}
+
+	/* Starts a search for the session on a worker. */
+	void search(ImcsSession session) {
+		workers.execute(session);
+	}
+
+	/* Called by a worker when the session's search is done: has the selector
+	 * thread send the move. */
+	void searchDone(ImcsSession session) {
+		searched.add(session);
+		selector.wakeup();
+	}
+
+	/* Records the timing of a move: the search, and the whole time from the
+	 * server asking for the move to sending it. */
+	void recordMove(long thinkNanos, long replyNanos) {
+		thinkTimes.add(thinkNanos);
+		replyTimes.add(replyNanos);
+	}
+
+	/* Returns the time each search took. */
+	LatencyRecorder getThinkTimes() {
+		return thinkTimes;
+	}
+
+	/* Returns the time from each "?" to sending its move. */
+	LatencyRecorder getReplyTimes() {
+		return replyTimes;
+	}
+
+	/* Called by a session once it is done: counts its result. */
+	void sessionDone(ImcsSession session) {
+		running--;
+		int outcome = session.getOutcome();
+		switch (outcome) {
+		case 1:
+			wins++;
+			break;
+		case 0:
+			draws++;
+			break;
+		case -1:
+			losses++;
+			break;
+		default:
+			failed++;
+			break;
+		}
+		if (outcome == -2 && !verbose) {
+			System.out.println("game " + session.getId() + ": failed: " + session.getResult());
+		}
+		log(session, "done: " + session.getResult());
+	}
+
+	/* Writes a line about a session to the log, if verbose. */
+	void log(ImcsSession session, String message) {
+		if (verbose) {
+			System.out.println("game " + session.getId() + ": " + message);
+		}
+	}
+
+	/* Returns a summary of the results so far. */
+	String getStandings() {
+		return "won " + wins + ", drawn " + draws + ", lost " + losses + ", failed " + failed;
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Plays several IMCS games at once.
+	 *   Usage: java MultiClient [-server host] [-port N] [-user name] [-pass password]
+	 *          [-offer N] [-offercolor W|B] [-accept game id]... [-workers N]
+	 *          [-threads N] [-time seconds per move] [-clock seconds per game]
+	 *          [-hash MB] [-ttfile file] [-tb directory] [-stats file]
+	 *   -offer N offers N games (one by default if nothing is accepted), and
+	 *   each -accept accepts one offered game.
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, the server,
+	 *          account and search settings of MiniChessPlayer, one worker per
+	 *          core and one search thread per worker.
+	 * Outputs:
+	 *   The log of every game, then the results, on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException {
+		String server = MiniChessPlayer.server;
+		int port = Integer.parseInt(MiniChessPlayer.port);
+		String user = MiniChessPlayer.user;
+		String pass = MiniChessPlayer.pass;
+		int offers = 0;
+		String offerColor = null;
+		Vector<String> accepts = new Vector<String>();
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		SearchOptions options = MiniChessPlayer.searchOptions;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-server":
+				server = args[++i];
+				break;
+			case "-port":
+				port = Integer.parseInt(args[++i]);
+				break;
+			case "-user":
+				user = args[++i];
+				break;
+			case "-pass":
+				pass = args[++i];
+				break;
+			case "-offer":
+				offers = Integer.parseInt(args[++i]);
+				break;
+			case "-offercolor":
+				offerColor = args[++i];
+				break;
+			case "-accept":
+				accepts.add(args[++i]);
+				break;
+			case "-workers":
+				numWorkers = Integer.parseInt(args[++i]);
+				break;
+			case "-threads":
+				options.threads = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				options.moveTimeLimit = Double.parseDouble(args[++i]);
+				break;
+			case "-clock":
+				options.gameClock = Double.parseDouble(args[++i]);
+				break;
+			case "-hash":
+				options.hashMB = Integer.parseInt(args[++i]);
+				break;
+			case "-ttfile":
+				options.tableFile = args[++i];
+				break;
+			case "-tb":
+				options.tablebaseDir = args[++i];
+				break;
+			case "-stats":
+				options.statsFile = args[++i];
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		if (offers == 0 && accepts.size() == 0) {
+			offers = 1;
+		}
+
+		TTable table = new TTable(options.hashMB);
+		if (options.tableFile != null) {
+			int loaded = table.load(new File(options.tableFile));
+			if (loaded >= 0) {
+				System.out.println("Loaded " + loaded + " table entries from " + options.tableFile + ".");
+			}
+		}
+
+		MultiClient client = new MultiClient(numWorkers);
+		InetSocketAddress address = new InetSocketAddress(server, port);
+		int numSessions = offers + accepts.size();
+		for (int i = 0; i < numSessions; i++) {
+			String command;
+			if (i < offers) {
+				command = (offerColor == null) ? "offer" : "offer " + offerColor;
+			} else {
+				command = "accept " + accepts.elementAt(i - offers);
+			}
+			State start = new State();
+			start.setSearchOptions(options);
+			start.setTable(table);
+			client.add(new ImcsSession(client, i + 1, start, user, pass, command), address);
+		}
+		client.run();
+
+		if (options.tableFile != null) {
+			table.save(new File(options.tableFile));
+		}
+		System.out.println("Results: " + client.getStandings());
+		System.out.println(client.getThinkTimes().summary("think"));
+		System.out.println(client.getReplyTimes().summary("reply"));
+	}
+}
@@ -0,0 +1,290 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Class:
+ *   Perft
+ * Description:
+ *   Counts the leaf nodes of the move tree below a position to a fixed depth
+ *   ("perft"). Used to check that the move generator produces the same moves
+ *   after a change, and to measure how many leaf nodes per second it can
+ *   produce. Supports per-root-move ("divide") output, bulk counting at the
+ *   last ply, a Zobrist-keyed cache of subtree counts, and splitting the root
+ *   moves across cores with a fork-join pool.
+ */
+public class Perft {
+	private boolean bulk;          // Count the moves at depth 1 instead of making them.
+	private long[] cacheKeys;      // Cache entry keys (XORed with the count, see probe).
+	private long[] cacheCounts;    // Cache entry leaf counts.
+	private int cacheMask;         // Number of cache entries minus one.
+
+	/* Function:
+	 *   Perft
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *      bulk : True to count the moves at depth 1 instead of making them.
+	 *   cacheMB : Size of the subtree count cache in megabytes, or 0 for no cache.
+	 * Outputs:
+	 *   A new Perft counter.
+	 * Return values:
+	 *   None.
+	 */
+	public Perft(boolean bulk, int cacheMB) {
+		this.bulk = bulk;
+		if (cacheMB > 0) {
+			/* Each entry takes two longs (16 bytes); round down to a power of two. */
+			int numEntries = Integer.highestOneBit((int)Math.min((cacheMB * 1024L * 1024L) / 16, 1 << 30));
+			cacheKeys = new long[numEntries];
+			cacheCounts = new long[numEntries];
+			cacheMask = numEntries - 1;
+		}
+	}
+
+	/* Function:
+	 *   perft
+	 * Description:
+	 *   Counts the leaf nodes of the move tree below the given position, making
+	 *   and unmaking the moves on it in place.
+	 * Inputs:
+	 *       s : The position to count from. Left unchanged on return.
+	 *   depth : Number of plies to look ahead.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The number of positions reachable in exactly depth plies. A position where
+	 *   the game is over has no moves, so it only counts when depth is 0.
+	 */
+	public long perft(State s, int depth) {
+		if (depth == 0) {
+			return 1;
+		}
+		if (s.gameOver()) {
+			return 0;
+		}
+
+		long key = 0L;
+		if (cacheKeys != null) {
+			key = cacheKey(s, depth);
+			long cached = probe(key);
+			if (cached >= 0) {
+				return cached;
+			}
+		}
+
+		MoveList moves = s.getMoveList();
+		s.generateMoves(moves);
+		int numMoves = moves.size;
+		long nodes = 0;
+		if (bulk && depth == 1) {
+			nodes = numMoves;
+		} else {
+			for (int i = 0; i < numMoves; i++) {
+				s.makeMove(moves.moves[i]);
+				nodes += perft(s, depth - 1);
+				s.unmakeMove();
+			}
+		}
+
+		if (cacheKeys != null) {
+			store(key, nodes);
+		}
+		return nodes;
+	}
+
+	/* Function:
+	 *   divide
+	 * Description:
+	 *   Runs perft for every root move separately and prints the count under each,
+	 *   so that two move generators can be compared move by move.
+	 * Inputs:
+	 *          s : The position to count from. Left unchanged on return.
+	 *      depth : Number of plies to look ahead (at least 1).
+	 *    threads : Number of threads to split the root moves across, or 1 to run
+	 *              on the calling thread.
+	 *        out : Where to print the per-move counts, or null for no output.
+	 * Outputs:
+	 *   One "move: count" line per root move on out.
+	 * Return values:
+	 *   The total number of leaf nodes.
+	 */
+	public long divide(State s, int depth, int threads, PrintStream out) {
+		if (s.gameOver()) {
+			return 0;
+		}
+		MoveList moves = s.getMoveList();
+		s.generateMoves(moves);
+		int numMoves = moves.size;
+		long[] counts = new long[numMoves];
+
+		if (threads > 1) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			RootMoveTask[] tasks = new RootMoveTask[numMoves];
+			for (int i = 0; i < numMoves; i++) {
+				tasks[i] = new RootMoveTask(s.clone(), moves.moves[i], depth - 1);
+				pool.execute(tasks[i]);
+			}
+			for (int i = 0; i < numMoves; i++) {
+				counts[i] = tasks[i].join();
+			}
+			pool.shutdown();
+		} else {
+			for (int i = 0; i < numMoves; i++) {
+				s.makeMove(moves.moves[i]);
+				counts[i] = perft(s, depth - 1);
+				s.unmakeMove();
+			}
+		}
+
+		long nodes = 0;
+		for (int i = 0; i < numMoves; i++) {
+			if (out != null) {
+				out.println(Move.toMove(moves.moves[i]) + ": " + counts[i]);
+			}
+			nodes += counts[i];
+		}
+		return nodes;
+	}
+
+	/* Class:
+	 *   RootMoveTask
+	 * Description:
+	 *   Fork-join task which counts the subtree below one root move on its own
+	 *   copy of the position.
+	 */
+	private class RootMoveTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private State s;
+		private int move;
+		private int depth;
+
+		public RootMoveTask(State s, int move, int depth) {
+			this.s = s;
+			this.move = move;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Long compute() {
+			s.makeMove(move);
+			long nodes = perft(s, depth);
+			s.unmakeMove();
+			return nodes;
+		}
+	}
+
+	/* Builds the cache key for a position and depth. The turn number is mixed in
+	 * because the 40-turn limit can end the game, which changes the count. */
+	private static long cacheKey(State s, int depth) {
+		return s.getHash() ^ ((depth * 256L + s.getTurnNumber()) * 0x9E3779B97F4A7C15L);
+	}
+
+	/* Looks up a subtree count in the cache. Entries are stored as (key ^ count,
+	 * count) so that an entry torn by two threads writing at once fails the key
+	 * check instead of returning the wrong count. Returns -1 on a miss. */
+	private long probe(long key) {
+		int index = (int)key & cacheMask;
+		long count = cacheCounts[index];
+		if ((cacheKeys[index] ^ count) == key) {
+			return count;
+		}
+		return -1;
+	}
+
+	/* Stores a subtree count in the cache, replacing whatever was there. */
+	private void store(long key, long count) {
+		int index = (int)key & cacheMask;
+		cacheCounts[index] = count;
+		cacheKeys[index] = key ^ count;
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Runs perft on the starting position and/or board files written in the
+	 *   readBoard format (e.g. tests/board/*.txt) and reports leaf nodes/sec.
+	 *   Usage: java Perft [-depth N] [-bulk] [-hash MB] [-threads N] [-divide] [board files...]
+	 * Inputs:
+	 *   args : Command line arguments as shown above.
+	 * Outputs:
+	 *   Node counts, times and leaf nodes/sec for each position on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException {
+		int depth = 4;
+		boolean bulk = false;
+		int cacheMB = 0;
+		int threads = 1;
+		boolean showDivide = false;
+		Vector<String> files = new Vector<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-depth":
+				depth = Integer.parseInt(args[++i]);
+				break;
+			case "-bulk":
+				bulk = true;
+				break;
+			case "-hash":
+				cacheMB = Integer.parseInt(args[++i]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-divide":
+				showDivide = true;
+				break;
+			default:
+				files.add(args[i]);
+				break;
+			}
+		}
+		if (depth < 1) {
+			System.out.println("Depth must be at least 1.");
+			return;
+		}
+		if (files.size() == 0) {
+			files.add(null); // The starting position.
+		}
+
+		long totalNodes = 0;
+		long totalTime = 0;
+		for (int i = 0; i < files.size(); i++) {
+			String file = files.elementAt(i);
+			State s = new State();
+			if (file != null) {
+				FileInputStream in = new FileInputStream(file);
+				int result = s.readBoard(in);
+				in.close();
+				if (result != 0) {
+					System.out.println(file + ": skipped (readBoard returned " + result + ")");
+					continue;
+				}
+			}
+
+			Perft counter = new Perft(bulk, cacheMB);
+			long start = System.nanoTime();
+			long nodes = counter.divide(s, depth, threads, showDivide ? System.out : null);
+			long elapsed = System.nanoTime() - start;
+			totalNodes += nodes;
+			totalTime += elapsed;
+			System.out.println((file == null ? "start" : file) + ": depth " + depth + " nodes " + nodes
+					+ " time " + (elapsed / 1000000) + " ms " + nodesPerSecond(nodes, elapsed) + " nodes/sec");
+		}
+		System.out.println("total: nodes " + totalNodes + " time " + (totalTime / 1000000) + " ms "
+				+ nodesPerSecond(totalNodes, totalTime) + " nodes/sec");
+	}
+
+	/* Converts a node count and a time in nanoseconds into nodes per second. */
+	private static long nodesPerSecond(long nodes, long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return (long)(nodes * 1.0e9 / nanos);
+	}
+}
@@ -8,6 +8,23 @@ public class Piece {
 		public char piece_ch;          // The character representation of this piece.
 		public Square position;  // The square that this piece resides on.
 		
+		/* Piece indexes used for the bitboards in State and the keys in ZobristTable.
+		 * White pieces come first, then Black pieces in the same order. */
+		public static final int WHITE_PAWN = 0;
+		public static final int WHITE_ROOK = 1;
+		public static final int WHITE_KNIGHT = 2;
+		public static final int WHITE_BISHOP = 3;
+		public static final int WHITE_QUEEN = 4;
+		public static final int WHITE_KING = 5;
+		public static final int BLACK_PAWN = 6;
+		public static final int BLACK_ROOK = 7;
+		public static final int BLACK_KNIGHT = 8;
+		public static final int BLACK_BISHOP = 9;
+		public static final int BLACK_QUEEN = 10;
+		public static final int BLACK_KING = 11;
+		public static final int EMPTY = 12;
+		private static final String PIECE_CHARS = "PRNBQKprnbqk.";
+		
 		public Piece() {
 			piece_ch = 'P';
 			position = new Square(0,1);
@@ -52,6 +69,32 @@ public class Piece {
 			}
 		}
 		
+		/* Function:
+		 *   indexOf
+		 * Description:
+		 *   Returns the piece index (see WHITE_PAWN..EMPTY) of the given piece.
+		 * Inputs:
+		 *   ch : The character representation of the given piece.
+		 * Return values:
+		 *   The piece index, or -1 if the character is not a valid piece.
+		 */
+		public static int indexOf(char ch) {
+			return PIECE_CHARS.indexOf(ch);
+		}
+		
+		/* Function:
+		 *   charOf
+		 * Description:
+		 *   Returns the character representation of the given piece index.
+		 * Inputs:
+		 *   index : A piece index between WHITE_PAWN and EMPTY.
+		 * Return values:
+		 *   The character representation of the piece ('.' for EMPTY).
+		 */
+		public static char charOf(int index) {
+			return PIECE_CHARS.charAt(index);
+		}
+		
 		/* Function:
 		 *   isWhite
 		 * Description:
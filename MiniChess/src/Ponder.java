@@ -0,0 +1,129 @@
+/* Class:
+ *   Ponder
+ * Description:
+ *   Searches in the background on the opponent's time. After the bot moves, the
+ *   reply the opponent is expected to make (the best move stored in the
+ *   transposition table for the position) is assumed, and the bot's answer to it
+ *   is searched with no time limit until the opponent actually moves.
+ *
+ *   If the opponent plays the expected reply (a "ponder hit"), the search carries
+ *   on with the bot's normal time limit for the move, keeping everything it has
+ *   done so far. Otherwise (a "miss") it is stopped, and the normal search for
+ *   the move starts over, still finding the pondering's results in the shared
+ *   transposition table. With no expected reply, the opponent's own position is
+ *   searched instead, just to fill the table.
+ */
+public class Ponder implements Runnable {
+	private Search search;        // The background search.
+	private Thread thread;        // The thread running it.
+	private long ponder_hash;     // Hash of the position being searched.
+	private boolean expecting;    // The position is after an expected reply (so a hit is possible).
+	private Move result;          // The move found by the search, once it has finished.
+
+	private Ponder(State position, boolean expecting) {
+		this.expecting = expecting;
+		ponder_hash = position.getHash();
+		search = new Search(position, position.getTable(), position.getSearchOptions(), 0, null, Long.MAX_VALUE);
+		result = null;
+		thread = new Thread(this, "ponder");
+		thread.setDaemon(true);
+	}
+
+	/* Function:
+	 *   start
+	 * Description:
+	 *   Starts pondering after the bot has moved.
+	 * Inputs:
+	 *   gamestate : The position after the bot's move, with the opponent on move.
+	 *               It is not changed; the search works on a copy.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A new Ponder with its search running, or null if the game is over.
+	 */
+	public static Ponder start(State gamestate) {
+		if (gamestate.gameOver()) {
+			return null;
+		}
+		Ponder ponder;
+		int expected = expectedReply(gamestate);
+		if (expected != Move.NONE) {
+			State position = gamestate.clone();
+			position.makeMove(expected);
+			ponder = position.gameOver() ? null : new Ponder(position, true);
+		} else {
+			ponder = null;
+		}
+		if (ponder == null) {
+			ponder = new Ponder(gamestate.clone(), false);
+		}
+		ponder.thread.start();
+		return ponder;
+	}
+
+	/* Function:
+	 *   finish
+	 * Description:
+	 *   Called when the opponent's move has arrived. On a ponder hit, lets the
+	 *   search run on within the time limits for the bot's move and returns the move
+	 *   it finds. On a miss, stops the search.
+	 * Inputs:
+	 *   gamestate : The position after the opponent's move, with the bot on move.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The bot's move on a ponder hit, or null on a miss (the move must then be
+	 *   searched for as usual).
+	 */
+	public Move finish(State gamestate) {
+		boolean hit = expecting && gamestate.getHash() == ponder_hash && !gamestate.gameOver();
+		TimeManager tm = gamestate.getTimeManager();
+		if (hit) {
+			search.ponderHit(tm);
+		} else {
+			search.stop();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			search.stop();
+			return null;
+		}
+		if (!hit) {
+			return null;
+		}
+		double seconds = tm.getElapsed();
+		tm.endMove();
+		search.logStats(gamestate, result, seconds, true);
+		return result;
+	}
+
+	/* Stops the search without using its result (e.g. when the game ends). */
+	public void cancel() {
+		search.stop();
+	}
+
+	/* Runs the background search. */
+	public void run() {
+		result = search.searchWithHelpers();
+	}
+
+	/* Returns the opponent's expected reply: the best move stored in the
+	 * transposition table for the position, if it is a valid move there. */
+	private static int expectedReply(State gamestate) {
+		long entry = gamestate.getTable().probe(gamestate.getHash());
+		int move = TTable.move(entry);
+		if (entry == 0 || move == Move.NONE) {
+			return Move.NONE;
+		}
+		MoveList moves = new MoveList();
+		gamestate.generateMoves(moves);
+		for (int i = 0; i < moves.size; i++) {
+			if (moves.moves[i] == move) {
+				return move;
+			}
+		}
+		return Move.NONE;
+	}
+}
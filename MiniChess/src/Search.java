@@ -0,0 +1,821 @@
+import java.io.PrintStream;
+import java.util.Random;
+
+/* Class:
+ *   Search
+ * Description:
+ *   One thread's negamax search for the best move from a position. Everything
+ *   that changes while searching (the position the moves are made on, the node
+ *   count, the timer and the best move found so far) lives here rather than in
+ *   State, so several Searches can work on the same position at once.
+ *
+ *   getBestMove runs a "Lazy SMP" search: the calling thread searches as usual
+ *   while helper threads search copies of the same position, sharing only the
+ *   transposition table. The helpers start at staggered depths and take the root
+ *   moves in a different order, so they fill the table with results the main
+ *   thread can use when it gets there.
+ */
+public class Search implements Runnable {
+	/* Move ordering scores (see scoreMoves). Each group sorts above the next. */
+	private static final int TT_MOVE_SCORE = 1 << 30;
+	private static final int CAPTURE_SCORE = 1 << 24;
+	private static final int KILLER_SCORE = 1 << 22;
+	private static final int HISTORY_LIMIT = 1 << 20;
+	/* Deepest iteration ever started, leaving room in the move stack for quiesce. */
+	private static final int MAX_DEPTH = State.MAX_PLY / 2;
+	/* Piece values for ranking captures, indexed by piece (EMPTY last). */
+	private static final int[] ORDER_VALUES = { 1, 5, 3, 3, 9, 100, 1, 5, 3, 3, 9, 100, 0 };
+
+	private State s;                   // The position to search. Moves are made and unmade on it in place.
+	private TTable tt;                 // The transposition table (shared by all threads).
+	private Tablebases tablebases;     // Endgame tables to probe (shared by all threads), or null.
+	private SearchOptions options;     // Search settings.
+	private int id;                    // 0 for the main thread, 1 and up for helper threads.
+	private SearchStats stats;         // This thread's counters.
+	private SearchStats totals;        // Counters of all threads, once the search is over (main thread only).
+	private volatile TimeManager tm;   // Decides when to stop between iterations (main thread only, else null).
+	private volatile long deadline;    // System.nanoTime at which the search must stop.
+	private int nodes_until_check;     // Nodes left to search before the clock is read again.
+	private int gameWinValue;          // State value for winning the game.
+	private volatile boolean stopped;  // Set when time is up, or by the main thread to end a helper's search.
+	private int best_move;             // Best move found in the time elapsed.
+	private int completed_depth;       // Depth of the last iteration that finished in time.
+	private int[] curBestMoves;        // Best root moves found by the iteration in progress.
+	private int numCurBestMoves;       // Number of moves in curBestMoves.
+	private int[][] killers;           // Two quiet moves per ply which last caused a beta cutoff.
+	private int[][] history;           // Cutoff counts for quiet moves, by side and (from, to) square.
+	private int root_turn;             // Turn number of the root position.
+	private int root_ply;              // Ply of the root position on s (see State.getPly).
+	private boolean root_white;        // White is on move at the root.
+	private int max_turns;             // Turn after which the game is drawn.
+	private Search[] helpers;          // Helper searches started by the main thread (see searchWithHelpers).
+	private long start_time;           // System.nanoTime when the Search was built.
+	private PrintStream progress;      // Stream for a line after each iteration (see setProgress), or null.
+
+	/* Function:
+	 *   Search
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *                 s : The position to search. The Search owns it until the search
+	 *                     is over, and leaves it as it was.
+	 *                tt : The transposition table to use.
+	 *           options : Search settings.
+	 *                id : 0 for the main thread, 1 and up for helper threads.
+	 *                tm : The time manager, which decides when to stop between
+	 *                     iterations, or null to stop only at the deadline.
+	 *          deadline : The System.nanoTime at which the search must stop.
+	 * Outputs:
+	 *   A new Search.
+	 * Return values:
+	 *   None.
+	 */
+	public Search(State s, TTable tt, SearchOptions options, int id, TimeManager tm, long deadline) {
+		this.s = s;
+		this.tt = tt;
+		this.options = options;
+		tablebases = Tablebases.open(options.tablebaseDir);
+		this.id = id;
+		this.tm = tm;
+		this.deadline = deadline;
+		stats = new SearchStats();
+		totals = null;
+		nodes_until_check = options.timeCheckNodes;
+		gameWinValue = s.getGameWinValue();
+		stopped = false;
+		best_move = Move.NONE;
+		completed_depth = 0;
+		killers = new int[State.MAX_PLY + 1][2];
+		history = new int[2][State.NUM_SQUARES * State.NUM_SQUARES];
+		root_turn = s.getTurnNumber();
+		root_ply = s.getPly();
+		root_white = s.whiteOnMove();
+		max_turns = s.getMaxTurns();
+		helpers = new Search[0];
+		start_time = System.nanoTime();
+		progress = null;
+	}
+
+	/* Function:
+	 *   setProgress
+	 * Description:
+	 *   Makes the main search print a line to the given stream after each
+	 *   completed iteration, such as
+	 *     info depth 7 score 120 nodes 85210 nps 310000 time 274 pv b2-b3 d5-d4
+	 *   The node count includes the helpers' (approximate while they run), and
+	 *   the principal variation is followed through the transposition table.
+	 * Inputs:
+	 *   out : The stream, or null for no lines.
+	 * Outputs:
+	 *   None.
+	 * Return values:
+	 *   None.
+	 */
+	void setProgress(PrintStream out) {
+		progress = out;
+	}
+
+	/* Function:
+	 *   getBestMove
+	 * Description:
+	 *   Searches for the best move from the given position on options.threads
+	 *   threads (see searchWithHelpers). The time manager sets the time limits for
+	 *   the move and is charged for the time taken.
+	 * Inputs:
+	 *      root : The position to search. Left unchanged on return.
+	 *        tt : The transposition table to share between the threads.
+	 *   options : Search settings.
+	 *        tm : The time manager for the side on move.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A Move object that contains the source square and target square of the
+	 *   piece to move, or null if there are no moves.
+	 */
+	public static Move getBestMove(State root, TTable tt, SearchOptions options, TimeManager tm) {
+		tm.startMove(root.getTurnNumber(), root.getMaxTurns(), options.moveTimeLimit);
+		Search main = new Search(root, tt, options, 0, tm, tm.getDeadline());
+		Move bestMove = main.searchWithHelpers();
+		double seconds = tm.getElapsed();
+		tm.endMove();
+		main.logStats(root, bestMove, seconds, false);
+		return bestMove;
+	}
+
+	/* Function:
+	 *   searchWithHelpers
+	 * Description:
+	 *   Runs this (main) search on the calling thread, with options.threads - 1
+	 *   helper searches on copies of the position on threads of their own. The
+	 *   helpers are stopped when the main search finishes. The main search's move
+	 *   is used unless a helper completed a deeper iteration.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A Move object that contains the source square and target square of the
+	 *   piece to move, or null if there are no moves.
+	 */
+	Move searchWithHelpers() {
+		int numHelpers = Math.max(options.threads, 1) - 1;
+		Thread[] helperThreads = new Thread[numHelpers];
+		synchronized (this) {
+			helpers = new Search[numHelpers];
+			for (int i = 0; i < numHelpers; i++) {
+				helpers[i] = new Search(s.clone(), tt, options, i + 1, null, deadline);
+				helpers[i].stopped = stopped;
+				helperThreads[i] = new Thread(helpers[i], "search-helper-" + (i + 1));
+				helperThreads[i].setDaemon(true);
+				helperThreads[i].start();
+			}
+		}
+
+		run();
+
+		Search best = this;
+		for (int i = 0; i < numHelpers; i++) {
+			helpers[i].stopped = true;
+		}
+		for (int i = 0; i < numHelpers; i++) {
+			try {
+				helperThreads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				continue;
+			}
+			if (helpers[i].completed_depth > best.completed_depth && helpers[i].best_move != Move.NONE) {
+				best = helpers[i];
+			}
+		}
+
+		/* The helpers have stopped, so their counters can be added up. */
+		SearchStats sum = new SearchStats();
+		sum.add(stats);
+		for (int i = 0; i < numHelpers; i++) {
+			sum.add(helpers[i].stats);
+		}
+		sum.depth = best.stats.depth;
+		sum.score = best.stats.score;
+		totals = sum;
+
+		if (best.best_move == Move.NONE) {
+			return null;
+		}
+		return Move.toMove(best.best_move);
+	}
+
+	/* Returns the counters of all threads once searchWithHelpers has finished,
+	 * or this thread's counters before then. */
+	SearchStats getStats() {
+		return (totals != null) ? totals : stats;
+	}
+
+	/* Function:
+	 *   logStats
+	 * Description:
+	 *   Keeps the statistics of a finished search for a move with the root
+	 *   position (see State.getTableStats), and writes them to options.statsFile
+	 *   as one line of JSON (see SearchStats), if it is set.
+	 * Inputs:
+	 *       root : The position the move was searched from.
+	 *       move : The move chosen, or null.
+	 *    seconds : The time the search for the move took.
+	 *   pondered : The move was found by pondering (see Ponder).
+	 * Outputs:
+	 *   A line in options.statsFile.
+	 * Return values:
+	 *   None.
+	 */
+	void logStats(State root, Move move, double seconds, boolean pondered) {
+		root.setSearchStats(getStats());
+		if (options.statsFile != null) {
+			SearchStats.write(options.statsFile, getStats().toJson(root, move, seconds, tt.getUsage(), pondered));
+		}
+	}
+
+	/* Function:
+	 *   ponderHit
+	 * Description:
+	 *   Turns a search started with no time limit (pondering on the opponent's
+	 *   time) into a normal timed search for a move, without losing the work done
+	 *   so far. May be called from another thread while the search runs.
+	 * Inputs:
+	 *   newTm : The time manager for the side on move, which is started now.
+	 * Outputs:
+	 *   The main search and its helpers take their limits from newTm from now on.
+	 * Return values:
+	 *   None.
+	 */
+	synchronized void ponderHit(TimeManager newTm) {
+		newTm.startMove(root_turn, max_turns, options.moveTimeLimit);
+		long newDeadline = newTm.getDeadline();
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].deadline = newDeadline;
+		}
+		deadline = newDeadline;
+		tm = newTm;
+	}
+
+	/* Stops the search and its helpers as soon as possible. May be called from
+	 * another thread while the search runs. */
+	synchronized void stop() {
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].stopped = true;
+		}
+		stopped = true;
+	}
+
+	/* Function:
+	 *   run
+	 * Description:
+	 *   Runs an iterative deepening negamax search from the root position until
+	 *   time runs out, the depth limit is reached or the search is stopped, and
+	 *   records the best move found.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The best move and the depth of the last completed iteration are stored
+	 *   in this Search.
+	 * Return values:
+	 *   None.
+	 */
+	public void run() {
+		int[] bestMoves = null;
+		int numBestMoves = 0;
+
+		/* Get all possible next moves. The root list is never reused by
+		 * negamax, which starts one ply deeper. */
+		MoveList possibleMoves = s.getMoveList();
+		s.generateMoves(possibleMoves);
+		int numMoves = possibleMoves.size;
+		int[] stateScores = possibleMoves.scores;
+
+		/* A position with no moves that is not reported as over (a board with
+		 * no pieces for one side, say) has no move to return. */
+		if (numMoves == 0) {
+			best_move = Move.NONE;
+			return;
+		}
+
+		/* Score all possible next states. */
+		for (int i = 0; i < numMoves; i++) {
+			s.makeMove(possibleMoves.moves[i]);
+			stateScores[i] = -s.getStateValue();
+			s.unmakeMove();
+			/* If we find a winning move, use it. */
+			if (stateScores[i] == gameWinValue) {
+				best_move = possibleMoves.moves[i];
+				completed_depth = 1;
+				stats.depth = 1;
+				stats.score = gameWinValue;
+				return;
+			}
+		}
+
+		/* Sort moves in descending order by state value, to improve the
+		 * performance of alpha-beta pruning. Helpers then start from a
+		 * different root move each, so they do not all search the same
+		 * subtree first. */
+		possibleMoves.sortByScore();
+		if (id > 0 && numMoves > 0) {
+			rotate(possibleMoves.moves, numMoves, id % numMoves);
+		}
+
+		/* Select the best move from this list so we have a move to return
+		 * just in case negamax takes too long. */
+		if (numMoves > 0) {
+			best_move = possibleMoves.moves[0];
+		}
+		bestMoves = new int[numMoves];
+		curBestMoves = new int[numMoves];
+
+		/* Begin an iterative deepening negamax search for the next best move, while
+		 * remaining within the time limit. Odd-numbered helpers start one
+		 * iteration deeper than the main thread. */
+		int curDepth = id % 2;
+		int firstDepth = curDepth + 1;
+		int prevValue = 0;
+		while (!checkTime()) {
+			curDepth++;
+			if ((options.maxDepth > 0 && curDepth > options.maxDepth) || curDepth > MAX_DEPTH) {
+				break;
+			}
+
+			/* With PVS, search a window around the last iteration's value first,
+			 * and widen it on the side that failed until the value falls inside. */
+			int window = options.aspirationWindow;
+			int alpha = -gameWinValue;
+			int beta = gameWinValue;
+			if (options.pvs && window > 0 && curDepth > firstDepth) {
+				alpha = Math.max(prevValue - window, -gameWinValue);
+				beta = Math.min(prevValue + window, gameWinValue);
+			}
+			int value = searchRoot(possibleMoves, curDepth, alpha, beta);
+			while (!checkTime() && ((value <= alpha && alpha > -gameWinValue) || (value >= beta && beta < gameWinValue))) {
+				window *= 2;
+				if (value <= alpha) {
+					alpha = Math.max(value - window, -gameWinValue);
+				} else {
+					beta = Math.min(value + window, gameWinValue);
+				}
+				value = searchRoot(possibleMoves, curDepth, alpha, beta);
+			}
+
+			/* Commit new search results, and let the time manager decide whether
+			 * there is time for another iteration. */
+			if (!checkTime()) {
+				boolean bestMoveChanged = numBestMoves > 0 && bestMoves[0] != curBestMoves[0];
+				System.arraycopy(curBestMoves, 0, bestMoves, 0, numCurBestMoves);
+				numBestMoves = numCurBestMoves;
+				completed_depth = curDepth;
+				prevValue = value;
+				stats.depth = curDepth;
+				stats.score = value;
+				if (options.pvs && numBestMoves > 0) {
+					moveToFront(possibleMoves.moves, numMoves, bestMoves[0]);
+				}
+				if (progress != null && id == 0 && numBestMoves > 0) {
+					printProgress(curDepth, value, bestMoves[0]);
+				}
+				if (tm != null && tm.stopAfterIteration(bestMoveChanged)) {
+					break;
+				}
+			}
+		}
+
+		/* Pick a random move from the best options available. */
+		if (numBestMoves > 0) {
+			Random generator = new Random();
+			int randomIndex = generator.nextInt(numBestMoves);
+			best_move = bestMoves[randomIndex];
+		}
+	}
+
+	/* Function:
+	 *   searchRoot
+	 * Description:
+	 *   Searches every root move to the given depth and collects the best ones in
+	 *   curBestMoves. Without PVS every move gets the whole window, so all moves
+	 *   tied for best are found. With PVS the first move gets the whole window and
+	 *   the rest a null window that only shows whether they beat the best so far
+	 *   (searched again with the whole window if they do), so only one best move
+	 *   is found.
+	 * Inputs:
+	 *   possibleMoves : The root moves, best first.
+	 *           depth : The depth to search each move to.
+	 *           alpha : The lowest score that the current player is guaranteed to get.
+	 *            beta : The highest score that the opposing player is guaranteed to get.
+	 * Outputs:
+	 *   The best moves are stored in curBestMoves and numCurBestMoves.
+	 * Return values:
+	 *   The value of the best move. A value at or below alpha, or at or above beta,
+	 *   is only a bound and the window must be widened to learn more.
+	 */
+	private int searchRoot(MoveList possibleMoves, int depth, int alpha, int beta) {
+		int curBestValue = -gameWinValue;
+		int newAlpha = alpha;
+		numCurBestMoves = 0;
+		for (int i = 0; i < possibleMoves.size; i++) {
+			int move = possibleMoves.moves[i];
+			int value;
+			s.makeMove(move);
+			if (!options.pvs) {
+				value = -(negamax(depth, -beta, -alpha));
+			} else if (i == 0) {
+				value = -(negamax(depth, -beta, -newAlpha));
+			} else {
+				value = -(negamax(depth, -newAlpha - 1, -newAlpha));
+				if (value > newAlpha && value < beta) {
+					value = -(negamax(depth, -beta, -newAlpha));
+				}
+			}
+			s.unmakeMove();
+			if (stopped) {
+				break;  // Unfinished; the iteration is thrown away.
+			}
+			if (value > curBestValue) {
+				curBestValue = value;
+				numCurBestMoves = 0;
+				curBestMoves[numCurBestMoves++] = move;
+			} else if (value == curBestValue && !options.pvs) {
+				curBestMoves[numCurBestMoves++] = move;
+			}
+			if (options.pvs) {
+				if (value > newAlpha) {
+					newAlpha = value;
+				}
+				if (value >= beta) {
+					break;
+				}
+			}
+		}
+		return curBestValue;
+	}
+
+	/* Function:
+	 *   searchToDepth
+	 * Description:
+	 *   Runs a single negamax search of the given depth from the root position,
+	 *   with no time limit. Used by the benchmarks to measure the cost of a fixed
+	 *   amount of search.
+	 * Inputs:
+	 *   depth : The depth to search to.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The negamax value of the root position at the given depth.
+	 */
+	int searchToDepth(int depth) {
+		deadline = Long.MAX_VALUE;
+		stats = new SearchStats();
+		return negamax(depth, -gameWinValue, gameWinValue);
+	}
+
+	/* Function:
+	 *   negamax
+	 * Description:
+	 *   Recursively looks ahead at future possible moves to determine what the best
+	 *   move is for now. Returns the current position's integer valuation. Uses
+	 *   alpha-beta pruning to drop portions of the tree of states that it deems aren't
+	 *   worth pursuing. Moves are made and taken back on the position in place with
+	 *   makeMove/unmakeMove.
+	 * Inputs:
+	 *      depth : The maximum depth to traverse before evaluating a State's value early
+	 *              (i.e. before the end of the entire move tree).
+	 *      alpha : The lowest score that the current player is guaranteed to get. For
+	 *              alpha-beta pruning.
+	 *       beta : The highest score that the opposing player is guaranteed to get. For
+	 *              alpha-beta pruning.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   An integer value representing how advantageous pursuing this direction of moves
+	 *   will be for the current player.
+	 */
+	private int negamax(int depth, int alpha, int beta) {
+		/* A position repeated on the way here (or earlier in the game) is a
+		 * cycle: searching it again cannot find anything new, so it is scored
+		 * as a draw at once. */
+		if (s.getPly() > root_ply && s.isRepetition()) {
+			stats.nodes++;
+			stats.repetitions++;
+			return drawScore();
+		}
+		if (depth <= 0 && options.quiescence)
+			return quiesce(alpha, beta);
+		stats.nodes++;
+		if (s.gameOver() || depth <= 0 || timeUp())
+			return s.getStateValue();
+		int tbScore = probeTablebases();
+		if (tbScore != Tablebases.NOT_FOUND)
+			return tbScore;
+
+		/* Check transposition table for a saved entry. An entry from a search at
+		 * least this deep ends the search here if its score is exact, or if its
+		 * bound already falls outside the window. */
+		long hash = s.getHash();
+		long entry = tt.probe(hash);
+		stats.ttProbes++;
+		if (entry != 0)
+			stats.ttHits++;
+		int ttMove = (entry != 0) ? TTable.move(entry) : Move.NONE;
+		if (entry != 0 && TTable.depth(entry) >= depth) {
+			int ttScore = TTable.score(entry);
+			int bound = TTable.bound(entry);
+			if (bound == TTable.EXACT
+					|| (bound == TTable.LOWER && ttScore >= beta)
+					|| (bound == TTable.UPPER && ttScore <= alpha)) {
+				return ttScore;
+			}
+		}
+
+		int value = -gameWinValue;
+		int newAlpha = alpha;
+		int bestMove = Move.NONE;
+		long repetitions = stats.repetitions;  // Repetitions scored before this node's moves.
+
+		/* Get all possible next moves, and score them for ordering without making
+		 * them. The best remaining move is picked just before it is searched. */
+		MoveList possibleMoves = s.getMoveList();
+		s.generateMoves(possibleMoves);
+		int numMoves = possibleMoves.size;
+		int ply = s.getPly();
+		scoreMoves(possibleMoves, ttMove, ply);
+		stats.expanded++;
+
+		/* Begin negamax search down the tree of possible moves. With PVS, only the
+		 * first (expected best) move gets the whole window. The rest get a null
+		 * window, which is cheap to search and only shows whether the move beats
+		 * the best so far; the few that do are searched again with the whole window. */
+		for (int i = 0; i < numMoves; i++) {
+			possibleMoves.pickNext(i);
+			s.makeMove(possibleMoves.moves[i]);
+			int newValue;
+			if (i == 0 || !options.pvs) {
+				newValue = -(negamax(depth - 1, -beta, -newAlpha));
+			} else {
+				newValue = -(negamax(depth - 1, -newAlpha - 1, -newAlpha));
+				if (newValue > newAlpha && newValue < beta) {
+					newValue = -(negamax(depth - 1, -beta, -newAlpha));
+				}
+			}
+			s.unmakeMove();
+			/* Once the search is stopped, the scores coming back are unfinished:
+			 * return at once, so that none of them is stored in the table. */
+			if (stopped)
+				return 0;
+			if (newValue > value) {
+				value = newValue;
+				bestMove = possibleMoves.moves[i];
+			}
+			if (value > newAlpha)
+				newAlpha = value;
+			if (value >= beta) {
+				stats.cutoffs++;
+				if (i == 0)
+					stats.firstMoveCutoffs++;
+				if (!Move.isCapture(bestMove) && !Move.isPromotion(bestMove)) {
+					recordQuietCutoff(bestMove, ply, depth);
+				}
+				if (stats.repetitions == repetitions)
+					tt.store(hash, depth, TTable.LOWER, beta, bestMove);
+				return beta;
+			}
+		}
+
+		/* A value no better than alpha is only an upper bound: every move was
+		 * cut off below alpha somewhere in its subtree. A value that rests on a
+		 * repetition draw is not stored: the draw depends on the path taken to
+		 * the position, and its contempt on which side is searching, so it
+		 * would be wrong when the position is reached another way. */
+		if (stats.repetitions == repetitions)
+			tt.store(hash, depth, value > alpha ? TTable.EXACT : TTable.UPPER, value, bestMove);
+		return value;
+	}
+
+	/* Function:
+	 *   quiesce
+	 * Description:
+	 *   Searches only captures and promotions from a state at the depth limit, so
+	 *   that it is not evaluated in the middle of an exchange (a king left where it
+	 *   can be taken, say). The side on move may also "stand pat" and take the
+	 *   state's static value instead of capturing, which bounds the search from
+	 *   below and usually cuts it off at once.
+	 * Inputs:
+	 *   alpha : The lowest score that the current player is guaranteed to get.
+	 *    beta : The highest score that the opposing player is guaranteed to get.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The value of the state for the current player once the captures have
+	 *   played out, within the bounds of alpha and beta.
+	 */
+	private int quiesce(int alpha, int beta) {
+		stats.nodes++;
+		stats.qnodes++;
+		int standPat = s.getStateValue();
+		if (s.gameOver() || timeUp() || s.getPly() >= State.MAX_PLY - 1)
+			return standPat;
+		int tbScore = probeTablebases();
+		if (tbScore != Tablebases.NOT_FOUND)
+			return tbScore;
+		if (standPat >= beta)
+			return beta;
+		if (standPat > alpha)
+			alpha = standPat;
+
+		MoveList captures = s.getMoveList();
+		s.generateCaptures(captures);
+		int numMoves = captures.size;
+		scoreMoves(captures, Move.NONE, s.getPly());
+		for (int i = 0; i < numMoves; i++) {
+			captures.pickNext(i);
+			s.makeMove(captures.moves[i]);
+			int value = -quiesce(-beta, -alpha);
+			s.unmakeMove();
+			if (stopped)
+				return 0;
+			if (value >= beta)
+				return beta;
+			if (value > alpha)
+				alpha = value;
+		}
+		return alpha;
+	}
+
+	/* Function:
+	 *   scoreMoves
+	 * Description:
+	 *   Gives every move in the list an ordering score without making it: the move
+	 *   from the transposition table first, then captures and promotions by most
+	 *   valuable victim and least valuable attacker, then this ply's killer moves,
+	 *   then the remaining quiet moves by their history count plus the piece-square
+	 *   gain of the move (which orders them before any history is gathered).
+	 * Inputs:
+	 *    possibleMoves : The moves to score.
+	 *           ttMove : The best move stored in the table for this state, or Move.NONE.
+	 *              ply : The current search ply.
+	 * Outputs:
+	 *   The scores are stored in possibleMoves.scores.
+	 * Return values:
+	 *   None.
+	 */
+	private void scoreMoves(MoveList possibleMoves, int ttMove, int ply) {
+		int[] sideHistory = history[s.whiteOnMove() ? 0 : 1];
+		int killer0 = killers[ply][0];
+		int killer1 = killers[ply][1];
+		for (int i = 0; i < possibleMoves.size; i++) {
+			int move = possibleMoves.moves[i];
+			int score;
+			if (move == ttMove) {
+				score = TT_MOVE_SCORE;
+			} else if (Move.isCapture(move) || Move.isPromotion(move)) {
+				score = CAPTURE_SCORE + ORDER_VALUES[Move.captured(move)] * 16 - ORDER_VALUES[Move.moved(move)];
+				if (Move.isPromotion(move)) {
+					score += ORDER_VALUES[Piece.WHITE_QUEEN] * 16;
+				}
+			} else if (move == killer0) {
+				score = KILLER_SCORE + 1;
+			} else if (move == killer1) {
+				score = KILLER_SCORE;
+			} else {
+				score = sideHistory[Move.from(move) * State.NUM_SQUARES + Move.to(move)]
+						+ State.pieceSquareGain(move);
+			}
+			possibleMoves.scores[i] = score;
+		}
+	}
+
+	/* Remembers a quiet move which caused a beta cutoff: as the first killer
+	 * move for this ply, and in the history table, weighted by depth. History
+	 * counts are halved when one gets too large, so they stay below the killers. */
+	private void recordQuietCutoff(int move, int ply, int depth) {
+		if (killers[ply][0] != move) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = move;
+		}
+		int[] sideHistory = history[s.whiteOnMove() ? 0 : 1];
+		int index = Move.from(move) * State.NUM_SQUARES + Move.to(move);
+		sideHistory[index] += depth * depth;
+		if (sideHistory[index] >= HISTORY_LIMIT) {
+			for (int i = 0; i < sideHistory.length; i++) {
+				sideHistory[i] /= 2;
+			}
+		}
+	}
+
+	/* Prints the line described in setProgress for a completed iteration. */
+	private void printProgress(int depth, int value, int bestMove) {
+		long nodes = stats.nodes;
+		synchronized (this) {
+			for (int i = 0; i < helpers.length; i++) {
+				nodes += helpers[i].stats.nodes;
+			}
+		}
+		long millis = (System.nanoTime() - start_time) / 1000000;
+		long nps = (millis > 0) ? nodes * 1000 / millis : 0;
+		progress.println("info depth " + depth + " score " + value + " nodes " + nodes + " nps " + nps
+				+ " time " + millis + " pv " + principalVariation(bestMove, depth));
+	}
+
+	/* Returns the given root move followed by the best moves stored in the
+	 * transposition table after it, up to the given number of moves in all,
+	 * separated by spaces. Stops early at a stored move that cannot be played,
+	 * which an overwritten or colliding entry can give. */
+	private String principalVariation(int first, int maxMoves) {
+		StringBuilder pv = new StringBuilder(Move.toMove(first).toString());
+		s.makeMove(first);
+		int made = 1;
+		while (made < maxMoves && !s.gameOver()) {
+			long entry = tt.probe(s.getHash());
+			int move = TTable.move(entry);
+			if (entry == 0 || move == Move.NONE || !isLegal(move)) {
+				break;
+			}
+			pv.append(' ').append(Move.toMove(move));
+			s.makeMove(move);
+			made++;
+		}
+		for (int i = 0; i < made; i++) {
+			s.unmakeMove();
+		}
+		return pv.toString();
+	}
+
+	/* Returns true if the given move is one of the moves of the position. */
+	private boolean isLegal(int move) {
+		MoveList list = s.getMoveList();
+		s.generateMoves(list);
+		for (int i = 0; i < list.size; i++) {
+			if (list.moves[i] == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Returns the value of a repeated position for the player on move: even,
+	 * less the contempt for the side searching (plus it for the opponent). */
+	private int drawScore() {
+		return (s.whiteOnMove() == root_white) ? -options.contempt : options.contempt;
+	}
+
+	/* Looks the position up in the endgame tables. Returns its exact score, with
+	 * quicker wins (and slower losses) scoring higher, or Tablebases.NOT_FOUND
+	 * if there is no table for it. */
+	private int probeTablebases() {
+		if (tablebases == null || s.getPieceCount() > tablebases.getMaxPieces())
+			return Tablebases.NOT_FOUND;
+		int value = tablebases.probe(s);
+		if (value == Tablebases.NOT_FOUND)
+			return value;
+		stats.tbHits++;
+		if (value == Tablebase.DRAW)
+			return value;
+		int distance = Tablebase.distance(value);
+		return Tablebase.isWin(value) ? gameWinValue - distance : -gameWinValue + distance;
+	}
+
+	/* Returns true if the search should stop, because time is up or the main
+	 * thread has stopped this helper. Called at every node, so the clock is
+	 * only read once every options.timeCheckNodes nodes. */
+	private boolean timeUp() {
+		if (--nodes_until_check <= 0) {
+			nodes_until_check = options.timeCheckNodes;
+			return checkTime();
+		}
+		return stopped;
+	}
+
+	/* Reads the clock (and, in the main thread, the node count against
+	 * options.maxNodes) and returns true if the search should stop. */
+	private boolean checkTime() {
+		if (!stopped && (System.nanoTime() >= deadline
+				|| (id == 0 && options.maxNodes > 0 && stats.nodes >= options.maxNodes))) {
+			stopped = true;
+		}
+		return stopped;
+	}
+
+	/* Moves the given move to the front of the first n moves in the array,
+	 * keeping the others in order. */
+	private static void moveToFront(int[] moves, int n, int move) {
+		for (int i = 0; i < n; i++) {
+			if (moves[i] == move) {
+				System.arraycopy(moves, 0, moves, 1, i);
+				moves[0] = move;
+				return;
+			}
+		}
+	}
+
+	/* Rotates the first n moves in the array left by the given amount. */
+	private static void rotate(int[] moves, int n, int amount) {
+		int[] copy = new int[n];
+		System.arraycopy(moves, 0, copy, 0, n);
+		for (int i = 0; i < n; i++) {
+			moves[i] = copy[(i + amount) % n];
+		}
+	}
+}
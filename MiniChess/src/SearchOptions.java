@@ -0,0 +1,113 @@
+/* Class:
+ *   SearchOptions
+ * Description:
+ *   Settings for the move search. A State shares its SearchOptions with every
+ *   State copied from it, so a setting changed during a game applies to the
+ *   rest of that game.
+ */
+public class SearchOptions implements Cloneable {
+	public int threads;           // Number of search threads (1 = no helper threads).
+	public double moveTimeLimit;  // Fixed time (in seconds) to search each move for, or 0 to budget from gameClock.
+	public double gameClock;      // Time (in seconds) on each side's clock for the whole game.
+	public double moveOverhead;   // Time (in seconds) kept back per move for network latency.
+	public int timeCheckNodes;    // Number of nodes to search between reads of the clock.
+	public boolean ponder;        // Search on the opponent's time in IMCS games (see Ponder).
+	public int maxDepth;          // Deepest iteration to search, or 0 to search until time runs out.
+	public long maxNodes;         // Nodes for the main search thread to search before stopping, or 0 for no limit.
+	public int hashMB;            // Size of the transposition table in megabytes.
+	public String tablebaseDir;   // Directory of endgame tables (see Tablebases) to probe, or null for none.
+	public String statsFile;      // File to append a line of search statistics to after each move ("-" for standard out), or null.
+	public String tableFile;      // File to load the transposition table from before each game and save it to after, or null for none (the default).
+	public boolean pvs;           // Use principal variation search (null windows after the first move).
+	public int aspirationWindow;  // With pvs, half-width of the first root window around the last value (0 = none).
+	public boolean quiescence;    // Search captures and promotions past the depth limit before evaluating.
+	public int contempt;          // How much worse than even a repeated position scores for the side searching (negative to seek draws).
+	
+	public SearchOptions() {
+		threads = 1;
+		moveTimeLimit = 0.0;
+		gameClock = 300.0;
+		moveOverhead = 0.1;
+		timeCheckNodes = 1024;
+		ponder = false;
+		maxDepth = 0;
+		maxNodes = 0;
+		hashMB = TTable.DEFAULT_SIZE_MB;
+		tablebaseDir = null;
+		statsFile = null;
+		tableFile = null;
+		pvs = true;
+		aspirationWindow = 500;
+		quiescence = true;
+		contempt = 0;
+	}
+	
+	/* Returns a copy of these settings, to change without affecting games that
+	 * use these ones. */
+	public SearchOptions clone() {
+		try {
+			return (SearchOptions)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/* Function:
+	 *   set
+	 * Description:
+	 *   Changes one setting by name, e.g. from a command or a list of settings.
+	 *   Names: threads, time (seconds per move), clock (seconds per game, which
+	 *   also clears time), depth, nodes, hash (MB), pvs, aspiration, quiescence,
+	 *   contempt, tb (tablebase directory) and stats (statistics file).
+	 * Inputs:
+	 *    name : The name of the setting.
+	 *   value : Its new value.
+	 * Outputs:
+	 *   The setting is changed.
+	 * Return values:
+	 *   None.
+	 */
+	public void set(String name, String value) {
+		switch (name) {
+		case "threads":
+			threads = Integer.parseInt(value);
+			break;
+		case "time":
+			moveTimeLimit = Double.parseDouble(value);
+			break;
+		case "clock":
+			moveTimeLimit = 0.0;
+			gameClock = Double.parseDouble(value);
+			break;
+		case "depth":
+			maxDepth = Integer.parseInt(value);
+			break;
+		case "nodes":
+			maxNodes = Long.parseLong(value);
+			break;
+		case "hash":
+			hashMB = Integer.parseInt(value);
+			break;
+		case "pvs":
+			pvs = Boolean.parseBoolean(value);
+			break;
+		case "aspiration":
+			aspirationWindow = Integer.parseInt(value);
+			break;
+		case "quiescence":
+			quiescence = Boolean.parseBoolean(value);
+			break;
+		case "contempt":
+			contempt = Integer.parseInt(value);
+			break;
+		case "tb":
+			tablebaseDir = value;
+			break;
+		case "stats":
+			statsFile = value;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown setting: " + name);
+		}
+	}
+}
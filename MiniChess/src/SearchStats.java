@@ -0,0 +1,159 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/* Class:
+ *   SearchStats
+ * Description:
+ *   Counters kept by a search while it runs. Each search thread has its own,
+ *   so counting never contends with another thread; the main thread adds them
+ *   up once its helpers have stopped (see Search.searchWithHelpers).
+ *
+ *   After each move the totals can be written out as one line of JSON (see
+ *   toJson and write), so that many games can be collected and charted.
+ */
+public class SearchStats {
+	public long nodes;             // Positions searched, quiescence included.
+	public long qnodes;            // Positions searched by quiesce.
+	public long ttProbes;          // Transposition table probes.
+	public long ttHits;            // Probes that found an entry.
+	public long expanded;          // Positions whose moves were searched (not cut off by the table or depth).
+	public long cutoffs;           // Of those, positions where a move failed high (beta cutoff).
+	public long firstMoveCutoffs;  // Of those, cutoffs by the first move searched.
+	public long tbHits;            // Positions found in the endgame tables.
+	public long repetitions;       // Positions cut off as repeats of an earlier one.
+	public int depth;              // Depth of the last completed iteration.
+	public int score;              // Value of the root at that depth.
+	public long[] threadNodes;     // Nodes searched by each thread, main thread first (totals only).
+
+	public SearchStats() {
+		nodes = 0;
+		qnodes = 0;
+		ttProbes = 0;
+		ttHits = 0;
+		expanded = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		tbHits = 0;
+		repetitions = 0;
+		depth = 0;
+		score = 0;
+		threadNodes = new long[0];
+	}
+
+	/* Adds another thread's counters to these ones. The depth and score are not
+	 * changed. */
+	public void add(SearchStats other) {
+		nodes += other.nodes;
+		qnodes += other.qnodes;
+		ttProbes += other.ttProbes;
+		ttHits += other.ttHits;
+		expanded += other.expanded;
+		cutoffs += other.cutoffs;
+		firstMoveCutoffs += other.firstMoveCutoffs;
+		tbHits += other.tbHits;
+		repetitions += other.repetitions;
+		long[] newThreadNodes = new long[threadNodes.length + 1];
+		System.arraycopy(threadNodes, 0, newThreadNodes, 0, threadNodes.length);
+		newThreadNodes[threadNodes.length] = other.nodes;
+		threadNodes = newThreadNodes;
+	}
+
+	/* Returns the fraction of probes that found an entry. */
+	public double getTtHitRate() {
+		return ratio(ttHits, ttProbes);
+	}
+
+	/* Returns the fraction of expanded positions that ended in a beta cutoff. */
+	public double getCutoffRate() {
+		return ratio(cutoffs, expanded);
+	}
+
+	/* Returns the fraction of cutoffs made by the first move searched, a
+	 * measure of how well the moves are ordered. */
+	public double getFirstMoveCutoffRate() {
+		return ratio(firstMoveCutoffs, cutoffs);
+	}
+
+	/* Divides, giving 0 for 0 / 0. */
+	private static double ratio(long count, long total) {
+		return total == 0 ? 0.0 : (double)count / total;
+	}
+
+	/* Function:
+	 *   toJson
+	 * Description:
+	 *   Describes the search for a move as one line of JSON.
+	 * Inputs:
+	 *      root : The position the move was searched from.
+	 *      move : The move chosen, or null.
+	 *   seconds : The time the search took.
+	 *    ttFull : The fraction of the transposition table in use.
+	 *  pondered : The move was found by pondering (see Ponder).
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A line such as {"turn":12,"side":"W","move":"b2-b3","depth":9,...}.
+	 */
+	public String toJson(State root, Move move, double seconds, double ttFull, boolean pondered) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"time\":").append(System.currentTimeMillis());
+		json.append(",\"turn\":").append(root.getTurnNumber());
+		json.append(",\"side\":\"").append(root.whiteOnMove() ? 'W' : 'B').append('"');
+		json.append(",\"move\":").append(move == null ? "null" : "\"" + move + "\"");
+		json.append(",\"pondered\":").append(pondered);
+		json.append(",\"depth\":").append(depth);
+		json.append(",\"score\":").append(score);
+		json.append(",\"seconds\":").append(decimal(seconds));
+		json.append(",\"nodes\":").append(nodes);
+		json.append(",\"qnodes\":").append(qnodes);
+		json.append(",\"nps\":").append(seconds > 0 ? (long)(nodes / seconds) : 0);
+		json.append(",\"tt_probes\":").append(ttProbes);
+		json.append(",\"tt_hit_rate\":").append(decimal(getTtHitRate()));
+		json.append(",\"tt_full\":").append(decimal(ttFull));
+		json.append(",\"cutoff_rate\":").append(decimal(getCutoffRate()));
+		json.append(",\"first_move_cutoff_rate\":").append(decimal(getFirstMoveCutoffRate()));
+		json.append(",\"tb_hits\":").append(tbHits);
+		json.append(",\"repetitions\":").append(repetitions);
+		json.append(",\"threads\":").append(threadNodes.length);
+		json.append(",\"thread_nodes\":[");
+		for (int i = 0; i < threadNodes.length; i++) {
+			json.append(i > 0 ? "," : "").append(threadNodes[i]);
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	/* Formats a number with four decimals and a decimal point in any locale. */
+	private static String decimal(double value) {
+		return String.format(Locale.ROOT, "%.4f", value);
+	}
+
+	/* Function:
+	 *   write
+	 * Description:
+	 *   Appends a line to a file, or prints it. Lines written by several threads
+	 *   at once (e.g. in a Tournament) are never mixed together.
+	 * Inputs:
+	 *   file : The file to append to, or "-" for standard out.
+	 *   line : The line to write.
+	 * Outputs:
+	 *   The line in the file.
+	 * Return values:
+	 *   None.
+	 */
+	public static synchronized void write(String file, String line) {
+		if (file.equals("-")) {
+			System.out.println(line);
+			return;
+		}
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(file, true));
+			out.println(line);
+			out.close();
+		} catch (IOException e) {
+			System.out.println("Could not write to " + file + ": " + e.getMessage());
+		}
+	}
+}
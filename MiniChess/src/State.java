@@ -1,11 +1,9 @@
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Scanner;
 import java.util.Vector;
 import java.util.regex.Pattern;
-import java.util.Random;
 
 /* Class:
  *   State
@@ -13,27 +11,67 @@ import java.util.Random;
  *   Tracks the current state of the chess board, what turn it is and who is next
  *   to play. Also decides when there is a winner and who it is.
  */
-public class State implements Cloneable,Comparable<State> {
-	private char[][] board;  // Array grid representation of the chess board.
+public class State implements Cloneable {
+	private long[] bitboards;     // One bitboard per piece type and color (indexed like the Zobrist table).
+	private long white_pieces;    // Occupancy mask of all White pieces.
+	private long black_pieces;    // Occupancy mask of all Black pieces.
+	private long occupied;        // Occupancy mask of all pieces on the board.
 	private int num_rows;    // Number of rows in the chess board.
 	private int num_columns; // Number of columns in the chess board.
 	private int num_turns;   // Number of turns taken in the current game.
 	private int max_turns;   // Maximum number of turns allowed before game end.
-	private int num_states_evaluated;  // Number of states looked at during recursive calls (just for stats).
 	private boolean white_is_next;     // It is White's turn to play (True/False).
 	private boolean game_is_over;      // This game is over.
 	private boolean white_wins;        // White has won this game.
 	private boolean black_wins;        // Black has won this game.
-	private Move best_move;            // Best move found in the time elapsed.
-	private long searchStartTime;      // When the move search timer was started.
-	private double searchElapsedTime;  // How much time has elapsed since the move search timer was started.
-	private double moveTimeLimit;      // How much time to allow the bot to come up with a move.
 	private int gameWinValue;          // State value for winning the game.
-	private long hash;                 // The Zobrist hash for this game state.
-	private long whiteHash;            // The long integer that indicates white is on move in a Zobrist hash.
-	private long blackHash;            // The long integer that indicates black is on move in a Zobrist hash.
-	private ZobristTable zob;          // The Zobrist hash generator.
-	private TTable tt;                 // The transposition table.
+	private long hash;                 // The Zobrist hash of the board and the player on move (see getHash).
+	private TTable tt;                 // The transposition table (built on first use, see getTable).
+	private SearchOptions options;     // Search settings (shared with copies of this State).
+	private TimeManager[] clocks;      // Game clock for each side, White first (built on first use).
+	private MoveUndo[] undo_stack;     // Undo records for the moves made with makeMove.
+	private MoveList[] move_lists;     // Preallocated move list for each search ply.
+	private int ply;                   // Number of moves made with makeMove that have not been unmade.
+	private int piece_square_score;    // Running total of the per-piece evaluation terms (White's point of view).
+	private int pawn_structure_score;  // Doubled pawn and pawn chain terms (White's point of view).
+	private SearchStats search_stats;  // Counters of the last search for a move from this position, or null.
+	private long[] game_hashes;        // Hashes (see hash) of the game's earlier positions since the last capture or pawn move, oldest first. Never changed in place, so copies share it.
+	
+	/* Bitboard layout: bit (5 * y) + x is set when the square at column x, row y
+	 * holds the piece. All 30 squares of the board fit in the low bits of a long. */
+	static final int NUM_SQUARES = 30;
+	private static final long BOARD_MASK = (1L << NUM_SQUARES) - 1;
+	static final int MAX_PLY = 128;
+	private static final long[] NO_HASHES = new long[0];
+	private static final long FILE_A = 0x2108421L;          // x = 0 on every row.
+	private static final long FILE_E = FILE_A << 4;         // x = 4 on every row.
+	private static final long RANK_1 = 0x1FL;               // y = 0.
+	private static final long RANK_6 = RANK_1 << 25;        // y = 5.
+	private static final long INNER_RANKS = BOARD_MASK & ~RANK_1 & ~RANK_6; // y = 1..4.
+	private static final long CENTER = (0x0EL << 10) | (0x0EL << 15); // x = 1..3, y = 2..3.
+	
+	/* Evaluation weights (see getStateValue). */
+	private static final int PAWN_VALUE = 1000;
+	private static final int KNIGHT_VALUE = 3000;
+	private static final int BISHOP_VALUE = 3000;
+	private static final int ROOK_VALUE = 5000;
+	private static final int QUEEN_VALUE = 9000;
+	private static final int CENTER_PIECE_VALUE = 50;
+	private static final int DEVELOPED_PIECE_VALUE = 200;
+	private static final int ADVANCED_PAWN_VALUE = 150; // multiplied by how far up it is.
+	private static final int DOUBLED_PAWN_VALUE = -100;
+	private static final int PAWN_CHAIN_VALUE = 100;
+	private static final int[][] PIECE_SQUARE_VALUES = buildPieceSquareValues();
+	
+	/* Directions used for shifting bitboards around the board. */
+	private static final int NORTH = MoveTables.NORTH;
+	private static final int SOUTH = MoveTables.SOUTH;
+	private static final int EAST = MoveTables.EAST;
+	private static final int WEST = MoveTables.WEST;
+	private static final int NORTH_EAST = MoveTables.NORTH_EAST;
+	private static final int NORTH_WEST = MoveTables.NORTH_WEST;
+	private static final int SOUTH_EAST = MoveTables.SOUTH_EAST;
+	private static final int SOUTH_WEST = MoveTables.SOUTH_WEST;
 	
 	/* Function:
 	 *   State
@@ -51,23 +89,18 @@ public class State implements Cloneable,Comparable<State> {
 		num_columns = 5;
 		num_turns = 1;
 		max_turns = 40;
-		num_states_evaluated = 0;
-		searchStartTime = 0;
-		searchElapsedTime = 0;
-		moveTimeLimit = 5.0;
 		gameWinValue = 100000;
 		white_is_next = true;
 		game_is_over = false;
 		white_wins = false;
 		black_wins = false;
-		best_move = null;
-		board = new char[num_columns][num_rows];
+		bitboards = new long[12];
 		hash = 0L;
-		zob = new ZobristTable();
-		Random rnd = new Random();
-		whiteHash = rnd.nextLong();
-		blackHash = rnd.nextLong();
-		tt = new TTable();
+		tt = null;
+		options = new SearchOptions();
+		clocks = null;
+		search_stats = null;
+		game_hashes = NO_HASHES;
 		
 		/* Initialize board
 		 *	      4
@@ -78,29 +111,23 @@ public class State implements Cloneable,Comparable<State> {
 		 *    PPPPP
 		 *  0 RNBQK
 		 *    0      
-		 * Indexing: [x][y]
-		 *           [col][row] 
+		 * Indexing: bit (5 * y) + x
+		 *           (5 * row) + col
 		 */
-		board[0][0] = 'R';
-		board[1][0] = 'N';
-		board[2][0] = 'B';
-		board[3][0] = 'Q';
-		board[4][0] = 'K';
-		for (int i = 0; i < num_columns; i++) {
-			board[i][1] = 'P';
-		}
-		for (int i = 0; i < num_columns; i++) {
-			board[i][2] = '.';
-			board[i][3] = '.';
-		}
-		for (int i = 0; i < num_columns; i++) {
-			board[i][4] = 'p';
-		}
-		board[0][5] = 'k';
-		board[1][5] = 'q';
-		board[2][5] = 'b';
-		board[3][5] = 'n';
-		board[4][5] = 'r';
+		bitboards[Piece.WHITE_ROOK] = 1L << 0;
+		bitboards[Piece.WHITE_KNIGHT] = 1L << 1;
+		bitboards[Piece.WHITE_BISHOP] = 1L << 2;
+		bitboards[Piece.WHITE_QUEEN] = 1L << 3;
+		bitboards[Piece.WHITE_KING] = 1L << 4;
+		bitboards[Piece.WHITE_PAWN] = RANK_1 << 5;
+		bitboards[Piece.BLACK_PAWN] = RANK_1 << 20;
+		bitboards[Piece.BLACK_KING] = 1L << 25;
+		bitboards[Piece.BLACK_QUEEN] = 1L << 26;
+		bitboards[Piece.BLACK_BISHOP] = 1L << 27;
+		bitboards[Piece.BLACK_KNIGHT] = 1L << 28;
+		bitboards[Piece.BLACK_ROOK] = 1L << 29;
+		updateOccupancy();
+		refreshScores();
 		genHash();
 	}
 
@@ -116,27 +143,19 @@ public class State implements Cloneable,Comparable<State> {
 	 *   A new State object containing the same data as the instance this function was called on.
 	 */
 	public State clone() {
-		State newState = new State();
-		newState.num_rows = this.num_rows;
-		newState.num_columns = this.num_columns;
-		newState.num_turns = this.num_turns;
-		newState.max_turns = this.max_turns;
-		newState.white_is_next = this.white_is_next;
-		newState.game_is_over = this.game_is_over;
-		newState.white_wins = this.white_wins;
-		newState.black_wins = this.black_wins;
-		newState.board = new char[newState.num_columns][newState.num_rows];
-		
-		for (int i = 0; i < num_columns; i++) {
-			for (int j = 0; j < num_rows; j++) {
-				newState.board[i][j] = this.board[i][j];
-			}
+		State newState;
+		try {
+			newState = (State)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
 		}
-		newState.zob = this.zob;
-		newState.tt = this.tt;
-		newState.hash = this.hash;
-		newState.whiteHash = this.whiteHash;
-		newState.blackHash = this.blackHash;
+		/* The transposition table, search options and clock are shared, but the board
+		 * and the make/unmake stack belong to the copy. */
+		newState.bitboards = this.bitboards.clone();
+		newState.undo_stack = null;
+		newState.move_lists = null;
+		newState.ply = 0;
+		newState.search_stats = null;
 		
 		return newState;
 	}
@@ -228,6 +247,107 @@ public class State implements Cloneable,Comparable<State> {
 		return black_wins;
 	}
 	
+	/* Function:
+	 *   getHash
+	 * Description:
+	 *   Returns the Zobrist hash of the current game state. The same position
+	 *   with a different number of turns left is a different state, since the
+	 *   turn limit can end the game, so the turns left are hashed as well.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The Zobrist hash of the board, the player on move and the turns left.
+	 */
+	long getHash() {
+		return hash ^ ZobristTable.getTurnHash(max_turns - num_turns);
+	}
+	
+	/* Function:
+	 *   getTurnNumber
+	 * Description:
+	 *   Returns the number of the turn currently being played.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The current turn number (starting at 1).
+	 */
+	int getTurnNumber() {
+		return num_turns;
+	}
+	
+	/* Function:
+	 *   getMaxTurns
+	 * Description:
+	 *   Returns the turn after which the game is drawn.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The maximum number of turns in a game.
+	 */
+	int getMaxTurns() {
+		return max_turns;
+	}
+	
+	/* Function:
+	 *   getPly
+	 * Description:
+	 *   Returns how many moves have been made on this State with makeMove and not
+	 *   yet unmade, i.e. how deep into a search it is.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The current search ply (0 at the root).
+	 */
+	int getPly() {
+		return ply;
+	}
+	
+	/* Returns the number of pieces on the board, kings included. */
+	int getPieceCount() {
+		return Long.bitCount(occupied);
+	}
+	
+	/* Returns the bitboard of the given piece (see the constants in Piece). */
+	long getBitboard(int piece) {
+		return bitboards[piece];
+	}
+	
+	/* Function:
+	 *   setPosition
+	 * Description:
+	 *   Sets up an arbitrary position, as readBoard does but without parsing.
+	 *   Used by the tablebase generator to visit every placement of a set of pieces.
+	 * Inputs:
+	 *       new_bitboards : One bitboard per piece (see the constants in Piece). Copied.
+	 *   new_white_is_next : White is on move.
+	 *       new_num_turns : The turn being played (starting at 1).
+	 * Outputs:
+	 *   Overwrites this State with the new position, with an empty make/unmake stack.
+	 * Return values:
+	 *   None.
+	 */
+	void setPosition(long[] new_bitboards, boolean new_white_is_next, int new_num_turns) {
+		System.arraycopy(new_bitboards, 0, bitboards, 0, bitboards.length);
+		updateOccupancy();
+		refreshScores();
+		white_is_next = new_white_is_next;
+		num_turns = new_num_turns;
+		game_is_over = false;
+		white_wins = false;
+		black_wins = false;
+		ply = 0;
+		game_hashes = NO_HASHES;
+		genHash();
+	}
+	
 	/* Function:
 	 *   readBoard
 	 * Description:
@@ -259,7 +379,7 @@ public class State implements Cloneable,Comparable<State> {
 		int new_num_turns;                   // New number of turns taken this game.
 		boolean new_white_is_next;           // New value for white_is_next (i.e. next to play).
 		String raw_input;                    // String for holding/parsing input.
-		char[][] new_board = new char[num_columns][num_rows];  // New board layout.
+		long[] new_bitboards = new long[12];  // New board layout.
 		
 		/* Begin reading and parsing input */
 		
@@ -332,14 +452,19 @@ public class State implements Cloneable,Comparable<State> {
 					return -8;
 				}
 				/* Piece is valid, add it to the new board. */
-				new_board[cur_column][cur_row] = piece;
+				if (piece != '.') {
+					new_bitboards[Piece.indexOf(piece)] |= 1L << squareIndex(cur_column, cur_row);
+				}
 			}
 		}
 		
 		/* Step 4. All previous steps were successful, so commit new board state. */
-		board = new_board;
+		bitboards = new_bitboards;
+		updateOccupancy();
+		refreshScores();
 		white_is_next = new_white_is_next;
 		num_turns = new_num_turns;
+		game_hashes = NO_HASHES;
 		
 		in.close();
 		genHash();
@@ -377,7 +502,7 @@ public class State implements Cloneable,Comparable<State> {
 		out.write('\n');
 		for (int i = num_rows - 1; i >= 0; i--) {
 			for (int j = 0; j < num_columns; j++) {
-				out.write(board[j][i]);
+				out.write(pieceAt(squareIndex(j,i)));
 			}
 			out.write('\n');
 		}
@@ -494,11 +619,9 @@ public class State implements Cloneable,Comparable<State> {
 			throw new Exception("Game is over.");
 		}
 		
-		searchElapsedTime = 0.0;
-		searchStartTime = System.nanoTime();
-		best_move = getBestMove();
+		Move bestMove = getBestMove();
 		
-		return best_move.toString();
+		return bestMove.toString();
 	}
 
 	/* Function:
@@ -594,10 +717,8 @@ public class State implements Cloneable,Comparable<State> {
 		if (gameOver()) {
 			throw new Exception("Game is over.");
 		}
-		searchElapsedTime = 0.0;
-		searchStartTime = System.nanoTime();
-		best_move = getBestMove();
-		State returnState = executeMove(best_move);
+		Move bestMove = getBestMove();
+		State returnState = executeMove(bestMove);
 		
 		return returnState;
 	}
@@ -692,7 +813,7 @@ public class State implements Cloneable,Comparable<State> {
 		if (!indexIsValid(x,y)) {
 			throw new IllegalArgumentException("Invalid coordinates.");
 		} else {
-			return board[x][y];
+			return pieceAt(squareIndex(x,y));
 		}
 	}
 	
@@ -717,527 +838,378 @@ public class State implements Cloneable,Comparable<State> {
 	}	
 	
 	/* Function:
-	 *   getStateValue
+	 *   squareIndex
 	 * Description:
-	 *   Uses heuristics to generate an integer value that represents how advantageous the current
-	 *   state of the game is for the current player.
+	 *   Converts board coordinates into the bit index used by the bitboards.
 	 * Inputs:
-	 *   None.
+	 *   x : An integer value indicating the x coordinate (column) of the square.
+	 *   y : An integer value indicating the y coordinate (row) of the square.
 	 * Outputs:
 	 *   The return values.
 	 * Return values:
-	 *   An integer value between -100,000 and 100,000. A higher number means the game state is more
-	 *   advantageous to the player that is on move. A 100,000 (or -100,000) means a sure win (or loss).
+	 *   The bit index (5 * y) + x of the square.
 	 */
-	private int getStateValue() {
-		int stateValue = 0;
-		int pawnValue = 1000;
-		int knightValue = 3000;
-		int bishopValue = 3000;
-		int rookValue = 5000;
-		int queenValue = 9000;
-		int centerPieceValue = 50;
-		int developedPieceValue = 200;
-		int advancedPawnValue = 150; // multiplied by how far up it is.
-		int doubledPawnValue = -100;
-		int pawnChainValue = 100;
-		boolean black_king_taken = true;
-		boolean white_king_taken = true;
-		
-		for (int i = 0; i < num_rows; i++) {
-			for (int j = 0; j < num_columns; j++) {
-				Square cur_square = new Square(j,i);
-				try {
-					Piece cur_piece = new Piece(getPieceAtSquare(cur_square),cur_square);
-					
-					/* Sum up the values of all pieces left on the board. */
-					if (cur_piece.piece_ch != '.') {
-						switch (cur_piece.piece_ch) {
-						case 'K':
-							white_king_taken = false;
-							break;
-						case 'k':
-							black_king_taken = false;
-							break;
-						case 'Q':
-							if (whiteOnMove()) {
-								stateValue += queenValue;
-							} else {
-								stateValue -= queenValue;
-							}
-							break;
-						case 'q':
-							if (blackOnMove()) {
-								stateValue += queenValue;
-							} else {
-								stateValue -= queenValue;
-							}
-							break;
-						case 'R':
-							if (whiteOnMove()) {
-								stateValue += rookValue;
-							} else {
-								stateValue -= rookValue;
-							}
-							break;
-						case 'r':
-							if (blackOnMove()) {
-								stateValue += rookValue;
-							} else {
-								stateValue -= rookValue;
-							}
-							break;
-						case 'B':
-							if (whiteOnMove()) {
-								stateValue += bishopValue;
-							} else {
-								stateValue -= bishopValue;
-							}
-							break;
-						case 'b':
-							if (blackOnMove()) {
-								stateValue += bishopValue;
-							} else {
-								stateValue -= bishopValue;
-							}
-							break;
-						case 'N':
-							if (whiteOnMove()) {
-								stateValue += knightValue;
-							} else {
-								stateValue -= knightValue;
-							}
-							break;
-						case 'n':
-							if (blackOnMove()) {
-								stateValue += knightValue;
-							} else {
-								stateValue -= knightValue;
-							}
-							break;
-						case 'P':
-							if (whiteOnMove()) {
-								stateValue += pawnValue;
-							} else {
-								stateValue -= pawnValue;
-							}
-							break;
-						case 'p':
-							if (blackOnMove()) {
-								stateValue += pawnValue;
-							} else {
-								stateValue -= pawnValue;
-							}
-							break;
-						}
-						
-						/* Assign some value to having pieces in the center squares of the board. */
-						if (cur_square.y > 1 && cur_square.y < 4) {
-							if (cur_square.x > 0 && cur_square.x < 4) {
-								if (whiteOnMove()) {
-									if (cur_piece.isWhite()) {
-										stateValue += centerPieceValue;
-									} else {
-										stateValue -= centerPieceValue;
-									}
-								} else {
-									if (cur_piece.isBlack()) {
-										stateValue += centerPieceValue;
-									} else {
-										stateValue -= centerPieceValue;
-									}
-								}								
-							}
-						}
-						
-						/* Add value for developed major pieces. */
-						if (cur_piece.isDeveloped()) {
-							if(whiteOnMove()) {
-								if (cur_piece.isWhite()) {
-									stateValue += developedPieceValue;
-								} else {
-									stateValue -= developedPieceValue;
-								}
-							} else {
-								if (cur_piece.isBlack()) {
-									stateValue += developedPieceValue;
-								} else {
-									stateValue -= developedPieceValue;
-								}
-							}
-						}
-						
-						/* Add value to advanced pawns. */
-						if (cur_square.y > 0 && cur_square.y < 5) {
-							if (cur_piece.piece_ch == 'P') {
-								int modifier = cur_square.y - 1;
-								if (whiteOnMove()) {
-									stateValue += (advancedPawnValue * modifier);
-								} else {
-									stateValue -= (advancedPawnValue * modifier);
-								}
-							} else if (cur_piece.piece_ch == 'p') {
-								int modifier = 4 - cur_square.y;
-								if (blackOnMove()) {
-									stateValue += (advancedPawnValue * modifier);
-								} else {
-									stateValue -= (advancedPawnValue * modifier);
-								}
-							}
-						}
-						
-						/* Add negative value of doubled pawns. */
-						if (cur_square.y > 0 && cur_square.y < 5) {
-							if (cur_piece.piece_ch == 'P') {
-								for (int new_y = cur_square.y + 1; new_y < 6; new_y++) {
-									Square next_square = new Square(cur_square.x,new_y);
-									Piece next_piece = new Piece(getPieceAtSquare(next_square),next_square);
-									if(next_piece.piece_ch == 'P') {
-										if (whiteOnMove()) {
-											stateValue += doubledPawnValue;
-										} else {
-											stateValue -= doubledPawnValue;
-										}
-									}
-								}
-							} else if (cur_piece.piece_ch == 'p') {
-								for (int new_y = cur_square.y - 1; new_y > 0; new_y--) {
-									Square next_square = new Square(cur_square.x,new_y);
-									Piece next_piece = new Piece(getPieceAtSquare(next_square),next_square);
-									if(next_piece.piece_ch == 'p') {
-										if (blackOnMove()) {
-											stateValue += doubledPawnValue;
-										} else {
-											stateValue -= doubledPawnValue;
-										}
-									}
-								}
-							}
-						}
-						
-						/* Add value of pawn-chains. */
-						if (cur_square.y > 0 && cur_square.y < 5) {
-							if (cur_piece.piece_ch == 'P') {
-								int new_y = cur_square.y + 1;
-								for (int x_offset = -1; x_offset <= 1; x_offset += 2) {
-									int new_x = cur_square.x + x_offset;
-									if (new_x >= 0 && new_x <= 5) {
-										Square next_square = new Square(new_x,new_y);
-										Piece next_piece = new Piece(getPieceAtSquare(next_square),next_square);
-										if(next_piece.piece_ch == 'P') {
-											if (whiteOnMove()) {
-												stateValue += pawnChainValue;
-											} else {
-												stateValue -= pawnChainValue;
-											}
-										}
-									}
-								}
-							} else if (cur_piece.piece_ch == 'p') {
-								int new_y = cur_square.y - 1;
-								for (int x_offset = -1; x_offset <= 1; x_offset += 2) {
-									int new_x = cur_square.x + x_offset;
-									if (new_x >= 0 && new_x <= 5) {
-										Square next_square = new Square(new_x,new_y);
-										Piece next_piece = new Piece(getPieceAtSquare(next_square),next_square);
-										if(next_piece.piece_ch == 'p') {
-											if (blackOnMove()) {
-												stateValue += pawnChainValue;
-											} else {
-												stateValue -= pawnChainValue;
-											}
-										}
-									}
-								}
-							}
-						}
-						
-						/* Add any other state valuations here... */
-					}
-				} catch (Exception e) {
-					/* This shouldn't happen since we should only loop through
-					 * existing squares above. */
-					e.getStackTrace();
-				}		
+	private static int squareIndex(int x, int y) {
+		return (5 * y) + x;
+	}
+	
+	/* Function:
+	 *   pieceIndexAt
+	 * Description:
+	 *   Finds which bitboard (if any) has the given square set.
+	 * Inputs:
+	 *   sq : The bit index of the square to check.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The piece index of the piece on the square, or Piece.EMPTY if it is empty.
+	 */
+	private int pieceIndexAt(int sq) {
+		long bit = 1L << sq;
+		if ((occupied & bit) == 0) {
+			return Piece.EMPTY;
+		}
+		int first = ((white_pieces & bit) != 0) ? Piece.WHITE_PAWN : Piece.BLACK_PAWN;
+		for (int i = first; i < first + 6; i++) {
+			if ((bitboards[i] & bit) != 0) {
+				return i;
 			}
 		}
-		
-		/* Check for game-winning states. */
-		if (white_king_taken) {
-			if (blackOnMove())
-				stateValue = gameWinValue;
-			else
-				stateValue = -gameWinValue;
-		} else if (black_king_taken) {
-			if (whiteOnMove())
-				stateValue = gameWinValue;
-			else
-				stateValue = -gameWinValue;
+		return Piece.EMPTY;
+	}
+	
+	/* Function:
+	 *   pieceAt
+	 * Description:
+	 *   Returns the character representation of the piece on the given square.
+	 * Inputs:
+	 *   sq : The bit index of the square to check.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The character representation of the piece (or blank square) on the square.
+	 */
+	private char pieceAt(int sq) {
+		return Piece.charOf(pieceIndexAt(sq));
+	}
+	
+	/* Function:
+	 *   updateOccupancy
+	 * Description:
+	 *   Rebuilds the occupancy masks from the per-piece bitboards.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   Updates white_pieces, black_pieces and occupied.
+	 * Return values:
+	 *   None.
+	 */
+	private void updateOccupancy() {
+		white_pieces = 0L;
+		black_pieces = 0L;
+		for (int i = Piece.WHITE_PAWN; i <= Piece.WHITE_KING; i++) {
+			white_pieces |= bitboards[i];
 		}
-		
-		return stateValue;
+		for (int i = Piece.BLACK_PAWN; i <= Piece.BLACK_KING; i++) {
+			black_pieces |= bitboards[i];
+		}
+		occupied = white_pieces | black_pieces;
 	}
 	
 	/* Function:
-	 *   getMovesInDirection
+	 *   shift
 	 * Description:
-	 *   Function which generates a list of valid moves for a particular piece in
-	 *   a particular direction.
+	 *   Moves every bit of a bitboard one square in the given direction. Bits
+	 *   that would leave the board are dropped rather than wrapping around to
+	 *   the next row.
 	 * Inputs:
-	 *   init_position : A Square object which indicates the initial position of the
-	 *                   piece we wish to move.
-	 *              dx : Indicator of the direction and number of spaces we wish to move along
-	 *                   the x axis.
-	 *              dy : Indicator of the direction and number of spaces we wish to move along
-	 *                   the y axis.
-	 *   allow_capture : A boolean value which indicates if we want to consider possible captures
-	 *                   by the piece in the given direction.
-	 *         one_hop : Boolean value which, if true, instructs the function to only get moves
-	 *                   one hop in the given direction.
+	 *     b : The bitboard to shift.
+	 *   dir : One of the direction constants (NORTH, SOUTH_WEST, ...).
 	 * Outputs:
 	 *   The return values.
 	 * Return values:
-	 *            null : If the given square has no piece on it (represented by a '.'), or is
-	 *                   not on the board, there are no valid moves and the function returns null.
-	 *    Vector<Move> : A Vector object containing all valid Moves that the piece in the given
-	 *                   Square can make in the given direction.
+	 *   The shifted bitboard.
 	 */
-	private Vector<Move> getMovesInDirection(Square init_position, int dx, int dy, boolean allow_capture, boolean one_hop) {
-		char piece;
-		try {
-			piece = getPieceAtSquare(init_position);
-			if (piece == '.') {
-				return null;
-			}
-		} catch (Exception e) {
-			return null;
+	private static long shift(long b, int dir) {
+		switch (dir) {
+		case NORTH:
+			return (b << 5) & BOARD_MASK;
+		case SOUTH:
+			return b >>> 5;
+		case EAST:
+			return (b & ~FILE_E) << 1;
+		case WEST:
+			return (b & ~FILE_A) >>> 1;
+		case NORTH_EAST:
+			return ((b & ~FILE_E) << 6) & BOARD_MASK;
+		case NORTH_WEST:
+			return ((b & ~FILE_A) << 4) & BOARD_MASK;
+		case SOUTH_EAST:
+			return (b & ~FILE_E) >>> 4;
+		case SOUTH_WEST:
+			return (b & ~FILE_A) >>> 6;
+		default:
+			return 0L;
 		}
+	}
+	
+	/* Function:
+	 *   buildPieceSquareValues
+	 * Description:
+	 *   Builds the table of what each piece is worth on each square, from White's
+	 *   point of view. Covers every evaluation term that depends only on a single
+	 *   piece and where it stands: material, center control, development of the
+	 *   bishop/knight/rook and pawn advancement.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A [piece index][square index] table of values.
+	 */
+	private static int[][] buildPieceSquareValues() {
+		int[] material = {PAWN_VALUE, ROOK_VALUE, KNIGHT_VALUE, BISHOP_VALUE, QUEEN_VALUE, 0};
+		int[] home_square = {-1, 0, 1, 2, -1, -1}; // Squares the rook, knight and bishop are developed from.
+		int[][] values = new int[12][NUM_SQUARES];
 		
-		int x = init_position.x;
-		int y = init_position.y;	
-		boolean piece_is_white = Piece.isWhite(piece);
-		boolean more_moves = true;
-		Vector<Move> valid_moves = new Vector<Move>(6);
-		
-		/* Begin scanning in the given direction for valid moves. */
-		x += dx;
-		y += dy;
-		while (x < num_columns && x >= 0 && y < num_rows && y >= 0 && more_moves) {
-			char cur_square = board[x][y];
-			if (cur_square == '.') {
-				/* If nothing is in the target square, it's a valid place to move so add it. */
-				valid_moves.add(new Move(init_position,new Square(x,y)));
-				x += dx;
-				y += dy;
-			} else {
-				/* If there is another piece in the square, we can only move there if
-				 * we are allowed to capture it. */
-				boolean target_is_white = Piece.isWhite(cur_square);
-				if (piece_is_white != target_is_white) {
-					if (allow_capture) {
-						valid_moves.add(new Move(init_position,new Square(x,y)));
-					}
+		for (int type = 0; type < 6; type++) {
+			for (int sq = 0; sq < NUM_SQUARES; sq++) {
+				int y = sq / 5;
+				/* Black's pieces mirror White's (rotated half a turn about the
+				 * center of the board, which all of these terms are symmetric under). */
+				int black_sq = NUM_SQUARES - 1 - sq;
+				int value = material[type];
+				
+				/* Assign some value to having pieces in the center squares of the board. */
+				if ((CENTER & (1L << sq)) != 0) {
+					value += CENTER_PIECE_VALUE;
 				}
-				more_moves = false;
+				/* Add value for developed major pieces (i.e. off of their home squares). */
+				if (home_square[type] >= 0 && home_square[type] != sq) {
+					value += DEVELOPED_PIECE_VALUE;
+				}
+				/* Add value to advanced pawns, multiplied by how many rows past their
+				 * second row they have travelled. */
+				if (type == Piece.WHITE_PAWN && y > 1 && y < 5) {
+					value += ADVANCED_PAWN_VALUE * (y - 1);
+				}
+				values[type][sq] = value;
+				values[type + 6][black_sq] = -value;
 			}
-			/* If this is a piece which only moves one hop per turn, stop after the
-			 * first iteration. */
-			if (one_hop) {
-				more_moves = false;
+		}
+		return values;
+	}
+	
+	/* Returns how much a move (without any capture or promotion) changes the
+	 * piece-square score, from the point of view of the side making it. */
+	static int pieceSquareGain(int move) {
+		int piece = Move.moved(move);
+		int gain = PIECE_SQUARE_VALUES[piece][Move.to(move)] - PIECE_SQUARE_VALUES[piece][Move.from(move)];
+		return piece < Piece.BLACK_PAWN ? gain : -gain;
+	}
+	
+	/* Function:
+	 *   refreshScores
+	 * Description:
+	 *   Recomputes the running evaluation totals from scratch. Called whenever the
+	 *   board is set up directly rather than through makeMove.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   Updates piece_square_score and pawn_structure_score.
+	 * Return values:
+	 *   None.
+	 */
+	private void refreshScores() {
+		piece_square_score = 0;
+		for (int p = Piece.WHITE_PAWN; p <= Piece.BLACK_KING; p++) {
+			for (long b = bitboards[p]; b != 0; b &= b - 1) {
+				piece_square_score += PIECE_SQUARE_VALUES[p][Long.numberOfTrailingZeros(b)];
 			}
 		}
-		
-		return valid_moves;
+		pawn_structure_score = getPawnStructureValue();
 	}
 	
+	/* Function:
+	 *   getPawnStructureValue
+	 * Description:
+	 *   Scores the doubled pawns and pawn chains on the board, from White's point
+	 *   of view. These terms depend on more than one pawn, so they cannot be kept
+	 *   in the piece-square table and are recomputed whenever a pawn moves.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The pawn structure value (positive is good for White).
+	 */
+	private int getPawnStructureValue() {
+		int value = 0;
+		long white_pawns = bitboards[Piece.WHITE_PAWN];
+		long black_pawns = bitboards[Piece.BLACK_PAWN];
+		
+		/* Only pawns on the inner rows count towards pawn structure. */
+		long inner_white_pawns = white_pawns & INNER_RANKS;
+		long inner_black_pawns = black_pawns & INNER_RANKS;
+		
+		/* Add negative value of doubled pawns. Each pawn counts the pawns of its own
+		 * color that are further up its file. */
+		for (long b = inner_white_pawns; b != 0; b &= b - 1) {
+			int sq = Long.numberOfTrailingZeros(b);
+			long above = (FILE_A << (sq % 5)) & ~((2L << sq) - 1);
+			value += DOUBLED_PAWN_VALUE * Long.bitCount(white_pawns & above);
+		}
+		for (long b = inner_black_pawns; b != 0; b &= b - 1) {
+			int sq = Long.numberOfTrailingZeros(b);
+			long below = (FILE_A << (sq % 5)) & ((1L << sq) - 1) & ~RANK_1;
+			value -= DOUBLED_PAWN_VALUE * Long.bitCount(black_pawns & below);
+		}
+		
+		/* Add value of pawn-chains (a pawn diagonally in front of another). */
+		value += PAWN_CHAIN_VALUE * (Long.bitCount(shift(inner_white_pawns, NORTH_EAST) & white_pawns)
+				+ Long.bitCount(shift(inner_white_pawns, NORTH_WEST) & white_pawns));
+		value -= PAWN_CHAIN_VALUE * (Long.bitCount(shift(inner_black_pawns, SOUTH_EAST) & black_pawns)
+				+ Long.bitCount(shift(inner_black_pawns, SOUTH_WEST) & black_pawns));
+		
+		return value;
+	}
 	
 	/* Function:
-	 *   getMovesForPieceAtIndex
+	 *   getStateValue
 	 * Description:
-	 *   Function which returns the valid moves for the piece at the
-	 *   given coordinates.
+	 *   Uses heuristics to generate an integer value that represents how advantageous the current
+	 *   state of the game is for the current player. The heuristic terms are kept up to date by
+	 *   makeMove/unmakeMove, so this is constant time.
 	 * Inputs:
-	 *   x : An integer value indicating the x coordinate (column) of the piece to get moves for.
-	 *   y : An integer value indicating the y coordinate (row) of the piece to get moves for.
+	 *   None.
 	 * Outputs:
 	 *   The return values.
 	 * Return values:
-	 *   A Vector object containing all valid moves for the piece at the given coordinates.
+	 *   An integer value between -100,000 and 100,000. A higher number means the game state is more
+	 *   advantageous to the player that is on move. A 100,000 (or -100,000) means a sure win (or loss).
 	 */
-	private Vector<Move> getMovesForPieceAtIndex(int x, int y) {
-		char piece;
-		try {
-			piece = getPieceAtIndex(x,y);
-		} catch (Exception e) {
-			return null;
+	int getStateValue() {
+		/* Check for game-winning states. */
+		if (bitboards[Piece.WHITE_KING] == 0) {
+			return blackOnMove() ? gameWinValue : -gameWinValue;
+		} else if (bitboards[Piece.BLACK_KING] == 0) {
+			return whiteOnMove() ? gameWinValue : -gameWinValue;
 		}
 		
-		int dx;
-		int dy;
-		boolean allow_capture;
-		boolean one_hop;
-		Square sq = new Square(x,y);
-		Vector<Move> moves = new Vector<Move>(6,6);
-		Vector<Move> pawn_possible_caps = new Vector<Move>(2);
+		/* Add any other state valuations here... */
+		int stateValue = piece_square_score + pawn_structure_score;
 		
-		switch(piece) {
+		if (blackOnMove()) {
+			stateValue = -stateValue;
+		}
+		return stateValue;
+	}
+	
+	/* Function:
+	 *   getTargets
+	 * Description:
+	 *   Function which returns the set of squares that the given piece can move
+	 *   to from the given square, by masking its MoveTables entries with the
+	 *   occupancy.
+	 * Inputs:
+	 *   piece : The piece index of the piece to get moves for.
+	 *      sq : The bit index of the square holding the piece.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A bitboard of all squares the piece can move to.
+	 */
+	private long getTargets(int piece, int sq) {
+		long own = (piece < Piece.BLACK_PAWN) ? white_pieces : black_pieces;
 		
-		case 'K':
-		case 'k':
-			allow_capture = true;
-			one_hop = true;
-			for (dx = -1; dx <= 1; dx++) {
-				for (dy = -1; dy <= 1; dy++) {
-					if (!(dx == 0 && dy == 0)) {
-						moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-					}
-				}
-			}
-			break;
-		case 'Q':
-		case 'q':
-			allow_capture = true;
-			one_hop = false;
-			for (dx = -1; dx <= 1; dx++) {
-				for (dy = -1; dy <= 1; dy++) {
-					if (!(dx == 0 && dy == 0)) {
-						moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-					}
-				}
-			}
-			break;
-		case 'R':
-		case 'r':
-			allow_capture = true;
-			one_hop = false;
-			for (dx = -1; dx <= 1; dx++) {
-				dy = 0;
-				if (!(dx == 0)) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			for (dy = -1; dy <= 1; dy++) {
-				dx = 0;
-				if (!(dy == 0)) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			break;
-		case 'B':
-		case 'b':
-			allow_capture = true;
-			one_hop = false;
-			for (dx = -1; dx <= 1; dx++) {
-				for (dy = -1; dy <= 1; dy++) {
-					if (!(dx == 0 || dy == 0)) {
-						moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-					}
-				}
-			}
-			allow_capture = false;
-			one_hop = true;
-			for (dx = -1; dx <= 1; dx++) {
-				dy = 0;
-				if (!(dx == 0)) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			for (dy = -1; dy <= 1; dy++) {
-				dx = 0;
-				if (!(dy == 0)) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			break;
-		case 'N':
-		case 'n':
-			allow_capture = true;
-			one_hop = true;
-			for (dx = -1; dx <= 1; dx += 2) {
-				for (dy = -2; dy <= 2; dy += 4) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			for (dx = -2; dx <= 2; dx += 4) {
-				for (dy = -1; dy <= 1; dy += 2) {
-					moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-				}
-			}
-			break;
-		case 'P':
-			/* Get possible forward (non-capture) movement. */
-			allow_capture = false;
-			one_hop = true;
-			dx = 0;
-			dy = 1;
-			moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-			/* Get possible diagonal (capture) movement. */
-			allow_capture = true;
-			for (dx = -1; dx <= 1; dx += 2) {
-				pawn_possible_caps.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-			}
-			for (int i = 0; i < pawn_possible_caps.size(); i++) {
-				Square tgt_Square = pawn_possible_caps.elementAt(i).to_Square;
-				try {
-					char tgt_Piece = getPieceAtSquare(tgt_Square);
-					if (Piece.isBlack(tgt_Piece)) {
-						moves.add(pawn_possible_caps.elementAt(i));
-					}
-				} catch (Exception e1) {
-					continue;
-				}
-			}
-			break;
-		case 'p':
-			/* Get possible forward (non-capture) movement. */
-			allow_capture = false;
-			one_hop = true;
-			dx = 0;
-			dy = -1;
-			moves.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-			/* Get possible diagonal (capture) movement. */
-			allow_capture = true;
-			for (dx = -1; dx <= 1; dx += 2) {
-				pawn_possible_caps.addAll(getMovesInDirection(sq,dx,dy,allow_capture,one_hop));
-			}
-			for (int i = 0; i < pawn_possible_caps.size(); i++) {
-				Square tgt_Square = pawn_possible_caps.elementAt(i).to_Square;
-				try {
-					char tgt_Piece = getPieceAtSquare(tgt_Square);
-					if (Piece.isWhite(tgt_Piece)) {
-						moves.add(pawn_possible_caps.elementAt(i));
-					}
-				} catch (Exception e1) {
-					continue;
-				}
-			}
-			break;
+		switch (piece) {
+		case Piece.WHITE_KING:
+		case Piece.BLACK_KING:
+			return MoveTables.KING[sq] & ~own;
+		case Piece.WHITE_QUEEN:
+		case Piece.BLACK_QUEEN:
+			return (MoveTables.rookTargets(sq, occupied) | MoveTables.diagonalTargets(sq, occupied)) & ~own;
+		case Piece.WHITE_ROOK:
+		case Piece.BLACK_ROOK:
+			return MoveTables.rookTargets(sq, occupied) & ~own;
+		case Piece.WHITE_BISHOP:
+		case Piece.BLACK_BISHOP:
+			/* Bishops slide and capture diagonally, and may also step one square
+			 * orthogonally without capturing. */
+			return (MoveTables.diagonalTargets(sq, occupied) & ~own) | (MoveTables.BISHOP_STEPS[sq] & ~occupied);
+		case Piece.WHITE_KNIGHT:
+		case Piece.BLACK_KNIGHT:
+			return MoveTables.KNIGHT[sq] & ~own;
+		case Piece.WHITE_PAWN:
+			/* Forward (non-capture) movement, then diagonal (capture-only) movement. */
+			return (MoveTables.PAWN_PUSHES[0][sq] & ~occupied) | (MoveTables.PAWN_CAPTURES[0][sq] & black_pieces);
+		case Piece.BLACK_PAWN:
+			return (MoveTables.PAWN_PUSHES[1][sq] & ~occupied) | (MoveTables.PAWN_CAPTURES[1][sq] & white_pieces);
 		default:
 			/* Empty space or something else. */
-			moves = null;
-			break;
-			
+			return 0L;
 		}
-		return moves;
 	}
 	
 	/* Function:
-	 *   getMovesForPieceAtSquare
+	 *   generateMoves
 	 * Description:
-	 *   Overloaded function which calls getMovesForPieceAtIndex to find the valid
-	 *   moves for the piece at the given Square.
+	 *   Generates all valid moves for the pieces belonging to the player on move,
+	 *   packed into ints (see Move.pack).
 	 * Inputs:
-	 *   sq : A Square object containing the indexes of the piece to get moves for.
+	 *   list : The MoveList to fill. Any moves already in it are discarded.
 	 * Outputs:
-	 *   The return values.
+	 *   Fills list with the valid moves.
 	 * Return values:
-	 *   A Vector object containing all valid moves for the piece at the given Square.
+	 *   None.
 	 */
-	private Vector<Move> getMovesForPieceAtSquare(Square sq) {
-		if (sq == null) {
-			return null;
-		} else {
-			return getMovesForPieceAtIndex(sq.x, sq.y);
+	void generateMoves(MoveList list) {
+		list.clear();
+		int first = white_is_next ? Piece.WHITE_PAWN : Piece.BLACK_PAWN;
+		long enemy = white_is_next ? black_pieces : white_pieces;
+		for (int piece = first; piece < first + 6; piece++) {
+			for (long b = bitboards[piece]; b != 0; b &= b - 1) {
+				int from = Long.numberOfTrailingZeros(b);
+				for (long t = getTargets(piece, from); t != 0; t &= t - 1) {
+					int to = Long.numberOfTrailingZeros(t);
+					int captured = ((enemy & (1L << to)) != 0) ? pieceIndexAt(to) : Piece.EMPTY;
+					boolean promotion = (piece == Piece.WHITE_PAWN && to >= NUM_SQUARES - 5)
+							|| (piece == Piece.BLACK_PAWN && to < 5);
+					list.add(Move.pack(from, to, piece, captured, promotion));
+				}
+			}
+		}
+	}
+	
+	/* Function:
+	 *   generateCaptures
+	 * Description:
+	 *   Generates only the captures and pawn promotions for the player on move, for
+	 *   the quiescence search. Cheaper than generateMoves because quiet moves are
+	 *   masked off before any moves are packed.
+	 * Inputs:
+	 *   list : The MoveList to fill. Any moves already in it are discarded.
+	 * Outputs:
+	 *   Fills list with the valid captures and promotions.
+	 * Return values:
+	 *   None.
+	 */
+	void generateCaptures(MoveList list) {
+		list.clear();
+		int first = white_is_next ? Piece.WHITE_PAWN : Piece.BLACK_PAWN;
+		long enemy = white_is_next ? black_pieces : white_pieces;
+		long promotion_rank = white_is_next ? RANK_6 : RANK_1;
+		for (int piece = first; piece < first + 6; piece++) {
+			long wanted = (piece == first) ? (enemy | promotion_rank) : enemy;
+			for (long b = bitboards[piece]; b != 0; b &= b - 1) {
+				int from = Long.numberOfTrailingZeros(b);
+				for (long t = getTargets(piece, from) & wanted; t != 0; t &= t - 1) {
+					int to = Long.numberOfTrailingZeros(t);
+					int captured = ((enemy & (1L << to)) != 0) ? pieceIndexAt(to) : Piece.EMPTY;
+					boolean promotion = (piece == first) && (promotion_rank & (1L << to)) != 0;
+					list.add(Move.pack(from, to, piece, captured, promotion));
+				}
+			}
 		}
 	}
 	
@@ -1253,37 +1225,38 @@ public class State implements Cloneable,Comparable<State> {
 	 *   A Vector object containing all valid moves for all pieces belonging to the player on move.
 	 */
 	public Vector<Move> getAllValidMoves() {
-		/* Scan the board for all the pieces belonging to the player that is on move. */
-		Vector<Square> occupied_squares = new Vector<Square>();
-		for (int i = 0; i < num_rows; i++) {
-			for (int j = 0; j < num_columns; j++) {
-				Square cur_square = new Square(j,i);
-				try {
-					char cur_piece = getPieceAtSquare(cur_square);
-					if (cur_piece != '.') {
-						if (Piece.isWhite(cur_piece) && white_is_next) {
-							occupied_squares.add(cur_square);
-						} else if (Piece.isBlack(cur_piece) && !white_is_next) {
-							occupied_squares.add(cur_square);
-						}
-					}
-				} catch (Exception e) {
-					/* This shouldn't happen since we should only loop through
-					 * existing squares above. */
-					e.getStackTrace();
-				}
-			}
-		}
-		
-		/* Generate all possible moves for those pieces. */
-		Vector<Move> possible_moves = new Vector<Move>();
-		for (int i = 0; i < occupied_squares.size(); i++) {
-			possible_moves.addAll(getMovesForPieceAtSquare(occupied_squares.elementAt(i)));
+		MoveList list = new MoveList();
+		generateMoves(list);
+		Vector<Move> possible_moves = new Vector<Move>(list.size);
+		for (int i = 0; i < list.size; i++) {
+			possible_moves.add(Move.toMove(list.moves[i]));
 		}
 		
 		return possible_moves;
 	}
 	
+	/* Function:
+	 *   getMoveList
+	 * Description:
+	 *   Returns the preallocated MoveList for the current search ply (i.e. the
+	 *   number of moves made with makeMove that have not been unmade).
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A MoveList that is not in use by any shallower ply.
+	 */
+	MoveList getMoveList() {
+		if (move_lists == null) {
+			move_lists = new MoveList[MAX_PLY + 1];
+		}
+		if (move_lists[ply] == null) {
+			move_lists[ply] = new MoveList();
+		}
+		return move_lists[ply];
+	}
+	
 	/* Function:
 	 *   executeMove
 	 * Description:
@@ -1297,7 +1270,7 @@ public class State implements Cloneable,Comparable<State> {
 	 *   A new State object containing the altered state of the game after the move
 	 *   has been executed. 
 	 */
-	private State executeMove(Move move) throws Exception {
+	State executeMove(Move move) throws Exception {
 		if (move == null) {
 			throw new IllegalArgumentException("Invalid Move.");
 		}
@@ -1311,7 +1284,9 @@ public class State implements Cloneable,Comparable<State> {
 		Square end_square = move.to_Square;
 		
 		char src_piece = getPieceAtSquare(start_square);
-		char tgt_piece = getPieceAtSquare(end_square);
+		if (!squareIsValid(end_square)) {
+			throw new IllegalArgumentException("Invalid square.");
+		}
 		if (src_piece == '.') {
 			throw new IllegalArgumentException("No piece at location.");
 		}
@@ -1322,149 +1297,289 @@ public class State implements Cloneable,Comparable<State> {
 		}
 		
 		/* Check that the piece in the originating square can move to the target location. */
-		Vector<Move> valid_moves = new Vector<Move>();
-		valid_moves = getMovesForPieceAtSquare(start_square);
-		if (!valid_moves.contains(move)) {
+		MoveList valid_moves = new MoveList();
+		generateMoves(valid_moves);
+		int packed_move = Move.NONE;
+		for (int i = 0; i < valid_moves.size; i++) {
+			if (move.matches(valid_moves.moves[i])) {
+				packed_move = valid_moves.moves[i];
+			}
+		}
+		if (packed_move == Move.NONE) {
 			throw new IllegalArgumentException("Move not allowed for given piece.");
 		}
 		
-		int from_x = move.from_Square.x;
-		int from_y = move.from_Square.y;
-		int to_x = move.to_Square.x;
-		int to_y = move.to_Square.y;
+		/* Generate new state to return. */
+		State new_gamestate = this.clone();
+		new_gamestate.makeMove(packed_move);
+		/* The new state starts out with an empty make/unmake stack, and remembers
+		 * this position for repetition detection unless the move cannot be undone. */
+		new_gamestate.ply = 0;
+		if (isIrreversible(packed_move)) {
+			new_gamestate.game_hashes = NO_HASHES;
+		} else {
+			new_gamestate.game_hashes = Arrays.copyOf(game_hashes, game_hashes.length + 1);
+			new_gamestate.game_hashes[game_hashes.length] = hash;
+		}
 		
-		/* Check for pawn promotion. */
-		if (src_piece == 'p' && to_y == 0) {
-			src_piece = 'q';
-		} else if (src_piece == 'P' && to_y == num_rows - 1) {
-			src_piece = 'Q';
+		return new_gamestate;
+	}
+	
+	/* Function:
+	 *   makeMove
+	 * Description:
+	 *   Executes a move on this State in place, without checking that it is valid,
+	 *   and records what is needed to take it back with unmakeMove. Used by the
+	 *   search, which only ever makes moves that the move generator produced.
+	 * Inputs:
+	 *   move : A packed move (see Move.pack) produced by generateMoves for this State.
+	 * Outputs:
+	 *   Alters this State to reflect the board after the move, and pushes an
+	 *   undo record onto the make/unmake stack.
+	 * Return values:
+	 *   None.
+	 */
+	void makeMove(int move) {
+		/* Undo records are created on first use, so that copies of a State which
+		 * only ever make one move (see executeMove) stay cheap. */
+		if (undo_stack == null) {
+			undo_stack = new MoveUndo[MAX_PLY];
 		}
+		if (undo_stack[ply] == null) {
+			undo_stack[ply] = new MoveUndo();
+		}
+		MoveUndo undo = undo_stack[ply++];
+		int from_sq = Move.from(move);
+		int to_sq = Move.to(move);
+		long from_bit = 1L << from_sq;
+		long to_bit = 1L << to_sq;
+		int moved = Move.moved(move);
+		int captured = Move.captured(move);
 		
-		/* Generate new state to return. */
-		State new_gamestate = this.clone(); 
-		new_gamestate.board[to_x][to_y] = src_piece;
-		new_gamestate.board[from_x][from_y] = '.';
-		new_gamestate.white_is_next = !new_gamestate.white_is_next;
-		if (new_gamestate.white_is_next)
-			new_gamestate.num_turns += 1;
+		undo.move = move;
+		undo.hash = hash;
+		undo.num_turns = num_turns;
+		undo.game_is_over = game_is_over;
+		undo.white_wins = white_wins;
+		undo.black_wins = black_wins;
+		undo.piece_square_score = piece_square_score;
+		undo.pawn_structure_score = pawn_structure_score;
 		
-		/* Check for victory/draw. */
-		/* Draw condition: Too many moves. */ 
-		if (new_gamestate.num_turns > new_gamestate.max_turns) {
-			new_gamestate.game_is_over = true;
-			new_gamestate.white_wins = false;
-			new_gamestate.black_wins = false;
+		/* Check for pawn promotion. */
+		int placed = moved;
+		if (Move.isPromotion(move)) {
+			placed = (moved == Piece.WHITE_PAWN) ? Piece.WHITE_QUEEN : Piece.BLACK_QUEEN;
 		}
 		
-		/* Victory condition: Current side has no valid moves. */
-		Vector<Move> possible_moves = new_gamestate.getAllValidMoves();
-		if (possible_moves.size() == 0) {
-			new_gamestate.game_is_over = true;
-			new_gamestate.white_wins = !new_gamestate.white_is_next;
-			new_gamestate.black_wins = new_gamestate.white_is_next;
+		/* Move the piece on the bitboards. */
+		bitboards[moved] &= ~from_bit;
+		if (captured != Piece.EMPTY) {
+			bitboards[captured] &= ~to_bit;
 		}
+		bitboards[placed] |= to_bit;
+		if (white_is_next) {
+			white_pieces = (white_pieces & ~from_bit) | to_bit;
+			black_pieces &= ~to_bit;
+		} else {
+			black_pieces = (black_pieces & ~from_bit) | to_bit;
+			white_pieces &= ~to_bit;
+		}
+		occupied = white_pieces | black_pieces;
 		
-		/* Victory condition: Captured opposing king. */
-		if (tgt_piece == 'k') {
-			new_gamestate.game_is_over = true;
-			new_gamestate.white_wins = true;
-			new_gamestate.black_wins = false;
-		} else if (tgt_piece == 'K') {
-			new_gamestate.game_is_over = true;
-			new_gamestate.white_wins = false;
-			new_gamestate.black_wins = true;
+		/* Update the running evaluation totals. The pawn structure only changes
+		 * when a pawn moves, is captured or is promoted. */
+		piece_square_score += PIECE_SQUARE_VALUES[placed][to_sq] - PIECE_SQUARE_VALUES[moved][from_sq];
+		if (captured != Piece.EMPTY) {
+			piece_square_score -= PIECE_SQUARE_VALUES[captured][to_sq];
+		}
+		if (moved == Piece.WHITE_PAWN || moved == Piece.BLACK_PAWN
+				|| captured == Piece.WHITE_PAWN || captured == Piece.BLACK_PAWN) {
+			pawn_structure_score = getPawnStructureValue();
 		}
 		
 		/* Iteratively generate the new hash value for the new state. */
-		long newHash = hash;
-		newHash = newHash ^ zob.getHash(end_square,tgt_piece);
-		newHash = newHash ^ zob.getHash(end_square, src_piece);
-		newHash = newHash ^ zob.getHash(start_square,src_piece);
-		newHash = newHash ^ zob.getHash(start_square, '.');
-		newHash = newHash ^ whiteHash;
-		newHash = newHash ^ blackHash;
-		new_gamestate.hash = newHash;
+		hash ^= ZobristTable.getHash(to_sq, captured);
+		hash ^= ZobristTable.getHash(to_sq, placed);
+		hash ^= ZobristTable.getHash(from_sq, moved);
+		hash ^= ZobristTable.getHash(from_sq, Piece.EMPTY);
+		hash ^= ZobristTable.getWhiteHash();
+		hash ^= ZobristTable.getBlackHash();
 		
-		return new_gamestate;
+		white_is_next = !white_is_next;
+		if (white_is_next)
+			num_turns += 1;
+		
+		/* Check for victory/draw. */
+		/* Draw condition: Too many moves. */ 
+		if (num_turns > max_turns) {
+			game_is_over = true;
+			white_wins = false;
+			black_wins = false;
+		}
+		
+		/* Victory condition: Captured opposing king. */
+		if (captured == Piece.BLACK_KING) {
+			game_is_over = true;
+			white_wins = true;
+			black_wins = false;
+		} else if (captured == Piece.WHITE_KING) {
+			game_is_over = true;
+			white_wins = false;
+			black_wins = true;
+		} else if (!hasValidMove()) {
+			/* Victory condition: Current side has no valid moves. */
+			game_is_over = true;
+			white_wins = !white_is_next;
+			black_wins = white_is_next;
+		}
 	}
-
+	
 	/* Function:
-	 *   negamax
+	 *   unmakeMove
 	 * Description:
-	 *   Recursively looks ahead at future possible moves to determine what the best
-	 *   move is for now. Returns that State's integer valuation. Uses alpha-beta pruning
-	 *   to drop portions of the tree of states that it deems aren't worth pursuing.
+	 *   Takes back the last move made with makeMove, restoring this State to
+	 *   exactly what it was before that move.
 	 * Inputs:
-	 *          s : A State object to examine.
-	 *      depth : The maximum depth to traverse before evaluating a State's value early
-	 *              (i.e. before the end of the entire move tree).
-	 *      alpha : The lowest score that the current player is guaranteed to get. For
-	 *              alpha-beta pruning.
-	 *       beta : The highest score that the opposing player is guaranteed to get. For
-	 *              alpha-beta pruning.
+	 *   None.
 	 * Outputs:
-	 *   The return values.
+	 *   Alters this State and pops the make/unmake stack.
 	 * Return values:
-	 *   An integer value representing how advantageous pursuing this direction of moves
-	 *   will be for the current player.
+	 *   None.
 	 */
-	private int negamax(State s, int depth, int alpha, int beta) {
-		num_states_evaluated++;
-		searchElapsedTime = (System.nanoTime() - searchStartTime) * 1.0e-9;
-		if (s.gameOver() || depth <= 0 || searchElapsedTime >= moveTimeLimit)
-			return s.getStateValue();
+	void unmakeMove() {
+		MoveUndo undo = undo_stack[--ply];
+		int move = undo.move;
+		long from_bit = 1L << Move.from(move);
+		long to_bit = 1L << Move.to(move);
+		int moved = Move.moved(move);
+		int captured = Move.captured(move);
+		int placed = moved;
+		if (Move.isPromotion(move)) {
+			placed = (moved == Piece.WHITE_PAWN) ? Piece.WHITE_QUEEN : Piece.BLACK_QUEEN;
+		}
 		
-		/* Check transposition table for a saved entry. */
-		TTableEntry entry = tt.getEntry(s.hash);
-		if (entry != null) {
-			if (entry.d >= depth) {
-				if ((entry.a < entry.v && entry.v < entry.b) || (entry.a <= alpha && beta <= entry.b)) {
-					return entry.v;
-				}
+		white_is_next = !white_is_next;
+		bitboards[placed] &= ~to_bit;
+		bitboards[moved] |= from_bit;
+		if (captured != Piece.EMPTY) {
+			bitboards[captured] |= to_bit;
+		}
+		if (white_is_next) {
+			white_pieces = (white_pieces & ~to_bit) | from_bit;
+			if (captured != Piece.EMPTY) {
+				black_pieces |= to_bit;
+			}
+		} else {
+			black_pieces = (black_pieces & ~to_bit) | from_bit;
+			if (captured != Piece.EMPTY) {
+				white_pieces |= to_bit;
 			}
 		}
+		occupied = white_pieces | black_pieces;
 		
-		int value = -gameWinValue;
-		int newAlpha = alpha;
-		
-		/* Get all possible next moves. */
-		Vector<Move> possibleMoves = s.getAllValidMoves();
-		int numMoves = possibleMoves.size();
-		State[] nextStates = new State[numMoves];
-		
-		/* Get all possible next states to be evaluated by negamax, then arrange
-		 * them in descending order by state value, to improve the performance of
-		 * alpha-beta pruning. */
-		try {
-			for (int i = 0; i < numMoves; i++) {
-				nextStates[i] = s.executeMove(possibleMoves.elementAt(i));
+		hash = undo.hash;
+		num_turns = undo.num_turns;
+		game_is_over = undo.game_is_over;
+		white_wins = undo.white_wins;
+		black_wins = undo.black_wins;
+		piece_square_score = undo.piece_square_score;
+		pawn_structure_score = undo.pawn_structure_score;
+	}
+	
+	/* Function:
+	 *   isRepetition
+	 * Description:
+	 *   Checks whether the board and player on move are the same as at some
+	 *   earlier point, on the moves made with makeMove or earlier in the game (see
+	 *   executeMove). Only positions since the last capture or pawn move can match,
+	 *   since neither can be undone, and only every other one, since the player on
+	 *   move must match too.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *    True : Returned if the position has occurred before.
+	 *   False : Returned if it has not.
+	 */
+	boolean isRepetition() {
+		int distance = 0;
+		for (int i = ply - 1; i >= 0; i--) {
+			MoveUndo undo = undo_stack[i];
+			distance++;
+			if (isIrreversible(undo.move)) {
+				return false;
 			}
-			Arrays.sort(nextStates, Collections.reverseOrder());
-			/* Begin negamax search down the tree of possible moves. */
-			for (int i = 0; i < numMoves; i++) {
-				int newValue = -(negamax(nextStates[i], depth - 1, -beta, -newAlpha));
-				if (newValue > value)
-					value = newValue;
-				if (value > newAlpha)
-					newAlpha = value;
-				if (value >= beta)
-					return beta;
+			if ((distance & 1) == 0 && undo.hash == hash) {
+				return true;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
-		
-		entry = new TTableEntry(s.hash, depth, alpha, beta, value); 
-		tt.storeEntry(entry); 
-		return value;
+		for (int i = game_hashes.length - 1; i >= 0; i--) {
+			distance++;
+			if ((distance & 1) == 0 && game_hashes[i] == hash) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/* Returns true if a packed move can never be undone: a capture or a pawn move. */
+	private static boolean isIrreversible(int move) {
+		int moved = Move.moved(move);
+		return Move.isCapture(move) || moved == Piece.WHITE_PAWN || moved == Piece.BLACK_PAWN;
+	}
+	
+	/* Function:
+	 *   hasValidMove
+	 * Description:
+	 *   Checks whether the player on move has at least one valid move. Stops at
+	 *   the first piece that can move instead of generating every move.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *    True : Returned if the player on move can make a move.
+	 *   False : Returned if the player on move has no valid moves.
+	 */
+	private boolean hasValidMove() {
+		int first = white_is_next ? Piece.WHITE_PAWN : Piece.BLACK_PAWN;
+		for (int piece = first; piece < first + 6; piece++) {
+			for (long b = bitboards[piece]; b != 0; b &= b - 1) {
+				if (getTargets(piece, Long.numberOfTrailingZeros(b)) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/* Function:
+	 *   searchToDepth
+	 * Description:
+	 *   Runs a single negamax search of the given depth from this State, with an
+	 *   empty transposition table and no time limit. Used by the benchmarks to
+	 *   measure the cost of a fixed amount of search.
+	 * Inputs:
+	 *   depth : The depth to search to.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The negamax value of this State at the given depth.
+	 */
+	int searchToDepth(int depth) {
+		getTable().clear();
+		return new Search(this, tt, options, 0, null, Long.MAX_VALUE).searchToDepth(depth);
 	}
 	
 	/* Function:
 	 *   getBestMove
 	 * Description:
-	 *   Initiates the recursive negamax search to seek out the best possible move.  
+	 *   Initiates the negamax search (see Search) to seek out the best possible move,
+	 *   using the search options set for this game, in the time given to it by the
+	 *   game's time manager.
 	 * Inputs:
-	 *       s : A State object to examine.
+	 *   None.
 	 * Outputs:
 	 *   The return values.
 	 * Return values:
@@ -1472,124 +1587,135 @@ public class State implements Cloneable,Comparable<State> {
 	 *   piece to move.
 	 */
 	Move getBestMove() {
-		num_states_evaluated = 0;
-		int bestValue = -gameWinValue;
-		Vector<Move> bestMoves = new Vector<Move>();
-		int curBestValue = bestValue;
-		Vector<Move> curBestMoves = null;
-		Move bestMove = null;
-		
-		/* Get all possible next moves. */
-		Vector<Move> possibleMoves = getAllValidMoves();
-		int numMoves = possibleMoves.size();
-		State[] nextStates = new State[numMoves];
-		int[] stateScores = new int[numMoves];
-		
-		try {
-			/* Get all possible next states to be evaluated by negamax. */
-			for (int i = 0; i < numMoves; i++) {
-				nextStates[i] = executeMove(possibleMoves.elementAt(i));
-				stateScores[i] = -(nextStates[i].getStateValue());
-				/* If we find a winning move, use it. */
-				if (stateScores[i] == gameWinValue) {
-					bestMove = possibleMoves.elementAt(i);
-					return bestMove;
-				}
-					
-			}
-			
-			/* Sort moves in descending order by state value, to improve the
-			 * performance of alpha-beta pruning. */
-			for (int i = 1; i < numMoves; i++) {
-				Move curMove = possibleMoves.elementAt(i);
-				State curState = nextStates[i];
-				int curValue = stateScores[i];
-				int j = i;
-				while (j > 0 && stateScores[j] < curValue) {
-					stateScores[j] = stateScores[j-1];
-					nextStates[j] = nextStates[j-1];
-					possibleMoves.set(j, possibleMoves.elementAt(j-1));
-					j--;
-				}
-				stateScores[j] = curValue;
-				nextStates[j] = curState;
-				possibleMoves.set(j, curMove);
-			}
-			
-			/* Select the best move from this list so we have a move to return
-			 * just in case negamax takes too long. */
-			bestMove = possibleMoves.elementAt(0);
-			
-			/* Begin an iterative deepening negamax search for the next best move, while
-			 * remaining within the time limit. */
-			int curDepth = 0;
-			searchElapsedTime = (System.nanoTime() - searchStartTime) * 1.0e-9;
-			while (searchElapsedTime < moveTimeLimit) {
-				curBestMoves = new Vector<Move>();
-				curBestValue = -gameWinValue;
-				curDepth++;
-				for (int i = 0; i < numMoves; i++) {
-					stateScores[i] = -(negamax(nextStates[i], curDepth, -gameWinValue, gameWinValue));
-					if (stateScores[i] > curBestValue) {
-						curBestValue = stateScores[i];
-						curBestMoves = new Vector<Move>();
-					}
-					if (stateScores[i] == curBestValue) {
-						curBestMoves.add(possibleMoves.elementAt(i));
-					}
-				}
-				/* Commit new search results. */
-				if (searchElapsedTime < moveTimeLimit) {
-					bestMoves.clear();
-					bestMoves.addAll(curBestMoves);
-					bestValue = curBestValue;	
-				}
-			}
-			/* Pick a random move from the best options available. */
-			if (bestMoves.size() > 0) {
-				Random generator = new Random();
-				int randomIndex = generator.nextInt(bestMoves.size());
-				bestMove = bestMoves.elementAt(randomIndex);	
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		return Search.getBestMove(this, getTable(), options, getTimeManager());
+	}
+	
+	/* Function:
+	 *   getTable
+	 * Description:
+	 *   Returns the transposition table, building it at the size given in the search
+	 *   options the first time it is needed. States copied from this one afterwards
+	 *   share it.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The transposition table for this game.
+	 */
+	TTable getTable() {
+		if (tt == null) {
+			tt = new TTable(options.hashMB);
 		}
-		
-		return bestMove;
+		return tt;
 	}
 	
-	public int compareTo(State s) {
-		int myStateValue = getStateValue();
-		int otherStateValue = s.getStateValue();
-		
-		if (myStateValue > otherStateValue)
-			return 1;
-		else if (myStateValue < otherStateValue)
-			return -1;
-		else
-			return 0;
+	/* Makes this State, and the States copied from it afterwards, use the given
+	 * transposition table, e.g. to share one table between several games. */
+	void setTable(TTable table) {
+		tt = table;
+	}
+	
+	/* Function:
+	 *   getTimeManager
+	 * Description:
+	 *   Returns the time manager which budgets the game clock of the player on move
+	 *   over their moves. Both sides' clocks are built from the search options the
+	 *   first time they are needed, and States copied from this one afterwards
+	 *   share them.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The TimeManager for the player on move.
+	 */
+	public TimeManager getTimeManager() {
+		if (clocks == null) {
+			clocks = new TimeManager[2];
+			clocks[0] = new TimeManager(options.gameClock, options.moveOverhead);
+			clocks[1] = new TimeManager(options.gameClock, options.moveOverhead);
+		}
+		return clocks[white_is_next ? 0 : 1];
+	}
+	
+	/* Function:
+	 *   getTableStats
+	 * Description:
+	 *   Describes how well the transposition table did in the last search for a
+	 *   move from this position.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A String with the table's hit rate and usage.
+	 */
+	public String getTableStats() {
+		return getTable().getStats((search_stats != null) ? search_stats : new SearchStats());
+	}
+	
+	/* Keeps the counters of a search for a move from this position (see Search.logStats). */
+	void setSearchStats(SearchStats stats) {
+		search_stats = stats;
+	}
+	
+	/* Function:
+	 *   getSearchOptions
+	 * Description:
+	 *   Returns the search settings used by this State and the States copied from it.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The SearchOptions object for this game.
+	 */
+	public SearchOptions getSearchOptions() {
+		return options;
+	}
+	
+	/* Function:
+	 *   setSearchOptions
+	 * Description:
+	 *   Replaces the search settings used by this State and the States copied from it
+	 *   from now on. A transposition table of a different size is rebuilt (empty)
+	 *   when next needed, and the game clock is restarted from the new options.
+	 * Inputs:
+	 *   newOptions : The search settings to use.
+	 * Outputs:
+	 *   None.
+	 * Return values:
+	 *   None.
+	 */
+	public void setSearchOptions(SearchOptions newOptions) {
+		options = newOptions;
+		if (tt != null && tt.getSizeMB() != options.hashMB) {
+			tt = null;
+		}
+		clocks = null;
+	}
+	
+	/* Returns the state value for winning the game. */
+	int getGameWinValue() {
+		return gameWinValue;
 	}
 	
 	/* Generates a new Zobrist hash for the current State. */
-	private void genHash() {
+	void genHash() {
 		long newHash = 0L;
-		char p = ' ';
-		Square sq = null;
-		try {
-			for (int i = 0; i < num_rows; i++) {
-				for (int j = 0; j < num_columns; j++) {
-					sq = new Square(j,i);
-					p = getPieceAtSquare(sq);
-					newHash = newHash ^ zob.getHash(sq, p);
-				}
-			}
-			if (whiteOnMove()) {
-				newHash = newHash ^ whiteHash;
-			} else {
-				newHash = newHash ^ blackHash;
+		for (int p = Piece.WHITE_PAWN; p <= Piece.BLACK_KING; p++) {
+			for (long b = bitboards[p]; b != 0; b &= b - 1) {
+				newHash = newHash ^ ZobristTable.getHash(Long.numberOfTrailingZeros(b), p);
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		}
+		for (long b = ~occupied & BOARD_MASK; b != 0; b &= b - 1) {
+			newHash = newHash ^ ZobristTable.getHash(Long.numberOfTrailingZeros(b), Piece.EMPTY);
+		}
+		if (whiteOnMove()) {
+			newHash = newHash ^ ZobristTable.getWhiteHash();
+		} else {
+			newHash = newHash ^ ZobristTable.getBlackHash();
 		}
 		hash = newHash;
 	}
@@ -1,49 +1,321 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
 /* Class:
  *   TTable
  * Description:
  *   A Transposition Table which stores critical information about previously seen
- *   states to save computation time.
+ *   states to save computation time. The table size is a power of two chosen from
+ *   a size in megabytes, and entries are kept in two parallel arrays of longs:
+ *
+ *     keys[i] : The full Zobrist hash of the state, XORed with data[i].
+ *     data[i] : The entry itself, packed as follows.
+ *               bits  0-18 : best move (see Move.pack), or Move.NONE.
+ *               bits 19-20 : bound type (EXACT, LOWER or UPPER).
+ *               bits 21-27 : search depth.
+ *               bit     28 : set in every stored entry, so data is never 0.
+ *               bits 29-31 : generation (the game the entry was stored in).
+ *               bits 32-63 : score.
+ *
+ *   Storing the key XORed with the data lets several search threads share one
+ *   table without locking: if two threads write the same slot at once, the halves
+ *   no longer match and the probe misses instead of returning the wrong entry.
+ *
+ *   Slots are grouped in buckets of two. The first slot of a bucket keeps the
+ *   deepest search seen for that bucket in the current game and the second
+ *   always takes the newest.
+ *
+ *   The table can be saved to a file at the end of a game and loaded at the
+ *   start of the next (see save and load), since every game starts from the
+ *   same position. Each game is a new generation. Entries from earlier games
+ *   give way to new ones, and are dropped once they have not been used for
+ *   MAX_AGE games.
  */
 public class TTable {
+	public static final int EXACT = 0;  // The score is the state's value.
+	public static final int LOWER = 1;  // The search failed high: the value is at least the score.
+	public static final int UPPER = 2;  // The search failed low: the value is at most the score.
 
-	public TTableEntry[] entries;
-	private int numEntries;
+	public static final int DEFAULT_SIZE_MB = 16;
+	private static final int ENTRY_BYTES = 16;
+	private static final int MOVE_MASK = 0x7FFFF;
+	private static final int BOUND_SHIFT = 19;
+	private static final int DEPTH_SHIFT = 21;
+	private static final int DEPTH_MASK = 0x7F;
+	private static final long USED = 1L << 28;
+	private static final int GENERATION_SHIFT = 29;
+	private static final int GENERATION_MASK = 7;
+	private static final long GENERATION_BITS = (long)GENERATION_MASK << GENERATION_SHIFT;
+	private static final int MAX_AGE = 4;
+	private static final int USAGE_SAMPLE = 2000;
 	
+	/* Snapshot file layout (little-endian): magic, version, Zobrist seed,
+	 * generation, number of entries, then every key followed by every entry. */
+	private static final int MAGIC = 0x4D435454; // "MCTT"
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 24;
+
+	private long[] keys;     // Entry keys (XORed with the data, see probe).
+	private long[] data;     // Packed entries.
+	private int bucketMask;  // Number of buckets minus one.
+	private int sizeMB;      // Requested size of the table in megabytes.
+	private int generation;  // Generation stored in new entries.
+
 	public TTable() {
-		numEntries = 512;
-		entries = new TTableEntry[numEntries];
-		for (int i = 0; i < numEntries; i++) {
-			entries[i] = new TTableEntry();
+		this(DEFAULT_SIZE_MB);
+	}
+
+	/* Builds a table of at most sizeMB megabytes, rounded down to a power of two
+	 * number of entries. */
+	public TTable(int sizeMB) {
+		this.sizeMB = sizeMB;
+		long bytes = Math.max(sizeMB, 1) * 1024L * 1024L;
+		int numEntries = Integer.highestOneBit((int)Math.min(bytes / ENTRY_BYTES, 1 << 30));
+		keys = new long[numEntries];
+		data = new long[numEntries];
+		bucketMask = numEntries / 2 - 1;
+		generation = 0;
+	}
+
+	/* Takes a hash and gives the packed entry stored for it, or 0 if there is none.
+	 * Use the static score, depth, bound and move functions to unpack it. */
+	public long probe(long tgtHash) {
+		int slot = getIndex(tgtHash);
+		long entry = data[slot];
+		if ((keys[slot] ^ entry) != tgtHash || entry == 0) {
+			slot++;
+			entry = data[slot];
+			if ((keys[slot] ^ entry) != tgtHash || entry == 0) {
+				return 0;
+			}
+		}
+		if (generation(entry) != generation) {
+			// Still useful in this game, so keep it from aging out.
+			write(slot, tgtHash, (entry & ~GENERATION_BITS) | ((long)generation << GENERATION_SHIFT));
 		}
+		return entry;
+	}
+
+	/* Stores an entry for the given hash. */
+	public void store(long tgtHash, int depth, int bound, int score, int move) {
+		long entry = ((long)score << 32) | ((long)generation << GENERATION_SHIFT) | USED
+				| ((long)depth << DEPTH_SHIFT) | ((long)bound << BOUND_SHIFT) | (move & MOVE_MASK);
+		storeEntry(tgtHash, entry);
 	}
 	
-	/* Takes a hash and gives the TTable entry that it corresponds to,
-	 * if it exists. Returns null if the entry is not valid. */
-	public TTableEntry getEntry(long tgtHash) {
-		int tgtIndex = getIndex(tgtHash);
-		if (entries[tgtIndex].valid) {
-			return entries[tgtIndex];
+	/* Stores a packed entry. The depth-preferred slot takes it if it is at least
+	 * as deep as what is there, or is for the same state, or what is there is
+	 * from an earlier game. The entry it replaces moves to the always-replace
+	 * slot. Otherwise it goes in the always-replace slot. */
+	private void storeEntry(long tgtHash, long entry) {
+		int depth = depth(entry);
+		int slot = getIndex(tgtHash);
+		long oldEntry = data[slot];
+		long oldHash = keys[slot] ^ oldEntry;
+		if (oldEntry == 0 || oldHash == tgtHash || depth >= depth(oldEntry)
+				|| generation(oldEntry) != generation) {
+			if (oldEntry != 0 && oldHash != tgtHash) {
+				write(slot + 1, oldHash, oldEntry);
+			}
+			write(slot, tgtHash, entry);
+		} else {
+			write(slot + 1, tgtHash, entry);
 		}
-		
-		return null;
+	}
+
+	/* Unpacks the score from an entry returned by probe. */
+	public static int score(long entry) {
+		return (int)(entry >> 32);
+	}
+
+	/* Unpacks the search depth from an entry returned by probe. */
+	public static int depth(long entry) {
+		return (int)(entry >>> DEPTH_SHIFT) & DEPTH_MASK;
+	}
+
+	/* Unpacks the bound type (EXACT, LOWER or UPPER) from an entry returned by probe. */
+	public static int bound(long entry) {
+		return (int)(entry >>> BOUND_SHIFT) & 3;
+	}
+
+	/* Unpacks the best move from an entry returned by probe. */
+	public static int move(long entry) {
+		return (int)entry & MOVE_MASK;
 	}
 	
-	/* Stores a new TTable Entry into the TTable. */
-	public void storeEntry(TTableEntry newEntry) {
-		newEntry.valid = true;
-		int tgtIndex = getIndex(newEntry.hash);
-		entries[tgtIndex] = newEntry;
+	/* Unpacks the generation from an entry. */
+	private static int generation(long entry) {
+		return (int)(entry >>> GENERATION_SHIFT) & GENERATION_MASK;
+	}
+	
+	/* Function:
+	 *   newGame
+	 * Description:
+	 *   Starts a new generation of entries for a new game, and drops the entries
+	 *   that are now MAX_AGE games old.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The table's generation is advanced and old entries are removed.
+	 * Return values:
+	 *   None.
+	 */
+	public void newGame() {
+		generation = (generation + 1) & GENERATION_MASK;
+		for (int i = 0; i < data.length; i++) {
+			long entry = data[i];
+			if (entry != 0 && ((generation - generation(entry)) & GENERATION_MASK) >= MAX_AGE) {
+				data[i] = 0L;
+				keys[i] = 0L;
+			}
+		}
 	}
 	
-	/* Takes a hash and returns the array index in the TTable
-	 * that it corresponds to. */
+	/* Function:
+	 *   save
+	 * Description:
+	 *   Writes the whole table to a file through a memory mapping, so that a later
+	 *   run can load it (see load). Must not be called while a search is using
+	 *   the table.
+	 * Inputs:
+	 *   file : The file to write. Replaced if it exists.
+	 * Outputs:
+	 *   The table snapshot in file.
+	 * Return values:
+	 *   None.
+	 */
+	public void save(File file) throws IOException {
+		long size = HEADER_BYTES + (long)ENTRY_BYTES * data.length;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Table too large to save.");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putLong(ZobristTable.SEED);
+			buf.putInt(generation).putInt(data.length);
+			LongBuffer longs = buf.asLongBuffer();
+			longs.put(keys);
+			longs.put(data);
+			buf.force();
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/* Function:
+	 *   load
+	 * Description:
+	 *   Replaces the contents of the table with a snapshot written by save, read
+	 *   through a memory mapping, then starts a new generation. A snapshot of the
+	 *   same size is copied in whole; one of another size has its entries stored
+	 *   one at a time. Must not be called while a search is using the table.
+	 * Inputs:
+	 *   file : The file to read.
+	 * Outputs:
+	 *   The table holds the snapshot's entries.
+	 * Return values:
+	 *   The number of entries loaded, or -1 if the file does not exist or is not a
+	 *   snapshot from this version with the same Zobrist keys (the table is then
+	 *   left as it was).
+	 */
+	public int load(File file) throws IOException {
+		if (!file.isFile()) {
+			return -1;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = raf.length();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				return -1;
+			}
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != ZobristTable.SEED) {
+				return -1;
+			}
+			int fileGeneration = buf.getInt();
+			int numEntries = buf.getInt();
+			if (numEntries < 0 || size != HEADER_BYTES + (long)ENTRY_BYTES * numEntries) {
+				return -1;
+			}
+			
+			LongBuffer longs = buf.asLongBuffer();
+			generation = fileGeneration & GENERATION_MASK;
+			if (numEntries == data.length) {
+				longs.get(keys);
+				longs.get(data);
+			} else {
+				Arrays.fill(data, 0L);
+				Arrays.fill(keys, 0L);
+				for (int i = 0; i < numEntries; i++) {
+					long entry = longs.get(numEntries + i);
+					if (entry != 0) {
+						storeEntry(longs.get(i) ^ entry, entry);
+					}
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		
+		newGame();
+		int loaded = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] != 0) {
+				loaded++;
+			}
+		}
+		return loaded;
+	}
+
+	/* Removes every entry from the TTable. */
+	public void clear() {
+		Arrays.fill(data, 0L);
+		Arrays.fill(keys, 0L);
+	}
+
+	/* Returns the size of the table in megabytes, as requested when it was built. */
+	public int getSizeMB() {
+		return sizeMB;
+	}
+
+	/* Returns the fraction of slots in use, estimated from the first few thousand. */
+	public double getUsage() {
+		int sample = Math.min(USAGE_SAMPLE, data.length);
+		int used = 0;
+		for (int i = 0; i < sample; i++) {
+			if (data[i] != 0) {
+				used++;
+			}
+		}
+		return (double)used / sample;
+	}
+
+	/* Describes a search's hit rate (counted per thread by the search, see
+	 * SearchStats) and the table's usage, e.g. for printing after the search. */
+	public String getStats(SearchStats stats) {
+		return String.format("tt hits %.1f%% of %d probes, %.1f%% full",
+				stats.getTtHitRate() * 100.0, stats.ttProbes, getUsage() * 100.0);
+	}
+
+	/* Writes one slot, data first, as the other half of the XOR check. */
+	private void write(int slot, long tgtHash, long entry) {
+		data[slot] = entry;
+		keys[slot] = tgtHash ^ entry;
+	}
+
+	/* Takes a hash and returns the array index of the first slot of the
+	 * bucket that it corresponds to. */
 	private int getIndex(long tgtHash) {
-		// 512 is 2^9 (9 bits), long is 64 bits, mask 55 bits.
-		long tgtIndex = tgtHash;
-		for (int i = 0; i < 55; i++)
-			tgtIndex = tgtIndex >> 1;
-		if (tgtIndex < 0)
-			tgtIndex = -tgtIndex;
-		return (int)tgtIndex;
+		return ((int)tgtHash & bucketMask) << 1;
 	}
 }
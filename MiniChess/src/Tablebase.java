@@ -0,0 +1,424 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Class:
+ *   Tablebase
+ * Description:
+ *   The exact value of every position with one set of pieces, e.g. KQvKR (a White
+ *   king and queen against a Black king and rook), with either side on move.
+ *   Positions are numbered by the squares of the pieces (see index) and each
+ *   has one byte:
+ *
+ *       0 : Draw. No side can force a win.
+ *     d>0 : The side on move wins in d plies (d is odd).
+ *     d<0 : The side on move loses in -d - 1 plies (an even number; 0 means it
+ *           has no valid moves).
+ *
+ *   Distances are for best play by both sides with no turn limit: the winner
+ *   wins as soon as it can and the loser holds out as long as it can. So with
+ *   r plies left before the game is drawn, a position is only won (or lost) if
+ *   its distance is at most r (see Tablebases.probe). Distances longer than the
+ *   longest game (MAX_DISTANCE plies) are not worked out and count as draws.
+ *
+ *   A table is solved by repeated passes over all of its positions (see solve).
+ *   Pass n finds every position won or lost in exactly n plies, from the
+ *   values of the positions one move away: those with the same pieces, found
+ *   in earlier passes, and those after a capture or a promotion, looked up in
+ *   tables solved before this one.
+ *
+ *   The values are written to a file with a short header, and read back by
+ *   mapping the file into memory, so that only the parts the search touches
+ *   are read from disk.
+ */
+public class Tablebase {
+	public static final int DRAW = 0;
+	static final int MAX_DISTANCE = 80;          // Plies in the longest game (40 turns).
+	static final int MAX_PIECES = 4;             // Most pieces (kings included) a table can have.
+	private static final int MAGIC = 0x4D435442; // "MCTB"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;  // Magic, version, number of positions, pieces.
+	private static final int CHUNK = 4096;       // Positions handed to a solver thread at a time.
+	private static final String PIECE_LETTERS = "PRNBQK";
+
+	private int[] pieces;       // The pieces (see the constants in Piece), in the order they are indexed.
+	private int numPositions;   // Number of position indexes (some are not valid positions).
+	private ByteBuffer values;  // The value of each position (mapped from the file once saved or loaded).
+
+	/* Function:
+	 *   Tablebase
+	 * Description:
+	 *   Constructor. Builds an unsolved table (every position a draw) in memory.
+	 * Inputs:
+	 *   pieces : The pieces, as ordered by Tablebases: the White king, White's
+	 *            other pieces, the Black king, then Black's other pieces.
+	 * Outputs:
+	 *   A new Tablebase.
+	 * Return values:
+	 *   None.
+	 */
+	public Tablebase(int[] pieces) {
+		this(pieces.clone(), null);
+		values = ByteBuffer.allocate(numPositions);
+	}
+
+	/* Builds a table with the given values (or none yet). */
+	private Tablebase(int[] pieces, ByteBuffer values) {
+		this.pieces = pieces;
+		this.values = values;
+		numPositions = 2;
+		for (int i = 0; i < pieces.length; i++) {
+			numPositions *= State.NUM_SQUARES;
+		}
+	}
+
+	/* Returns the name of the table, e.g. KQvKR. */
+	public String getName() {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] == Piece.BLACK_KING) {
+				name.append('v');
+			}
+			name.append(PIECE_LETTERS.charAt(pieces[i] % 6));
+		}
+		return name.toString();
+	}
+
+	/* Returns the pieces of the table, in the order they are indexed. */
+	int[] getPieces() {
+		return pieces.clone();
+	}
+
+	/* Returns the value stored for a position index (see the class description). */
+	int get(int index) {
+		return values.get(index);
+	}
+
+	/* Function:
+	 *   index
+	 * Description:
+	 *   Works out the index of a position with this table's pieces. The index is
+	 *   the square of each piece in turn, as digits in base 30, times two, plus
+	 *   one if Black is on move. Pieces of the same kind take the squares in
+	 *   increasing order, so each position has a single index.
+	 * Inputs:
+	 *        s : A position with exactly this table's pieces, or with this table's
+	 *            pieces with the colors swapped if mirrored is set.
+	 *   mirror : Look up the position with the board turned upside down and the
+	 *            colors swapped, which plays exactly the same.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The position index.
+	 */
+	int index(State s, boolean mirror) {
+		int index = 0;
+		long b = 0L;
+		for (int i = 0; i < pieces.length; i++) {
+			if (i == 0 || pieces[i] != pieces[i - 1]) {
+				b = mirror ? mirror(s.getBitboard(swapColor(pieces[i]))) : s.getBitboard(pieces[i]);
+			}
+			index = index * State.NUM_SQUARES + Long.numberOfTrailingZeros(b);
+			b &= b - 1;
+		}
+		boolean white = s.whiteOnMove() != mirror;
+		return index * 2 + (white ? 0 : 1);
+	}
+
+	/* Function:
+	 *   decode
+	 * Description:
+	 *   Sets up the bitboards for a position index, the reverse of index.
+	 * Inputs:
+	 *    index : The position index.
+	 *   boards : Bitboards to fill in (see the constants in Piece).
+	 * Outputs:
+	 *   The pieces of the position on boards.
+	 * Return values:
+	 *    True : The index is a position that can come up in a game.
+	 *   False : It is not (two pieces share a square, pieces of the same kind are
+	 *           out of order, or a pawn is on the first or last row).
+	 */
+	private boolean decode(int index, long[] boards) {
+		for (int p = 0; p < boards.length; p++) {
+			boards[p] = 0L;
+		}
+		long occupied = 0L;
+		int rest = index >>> 1;
+		int nextSquare = State.NUM_SQUARES;
+		for (int i = pieces.length - 1; i >= 0; i--) {
+			int sq = rest % State.NUM_SQUARES;
+			rest /= State.NUM_SQUARES;
+			long bit = 1L << sq;
+			if ((occupied & bit) != 0) {
+				return false;
+			}
+			if (i < pieces.length - 1 && pieces[i] == pieces[i + 1] && sq > nextSquare) {
+				return false;
+			}
+			if ((pieces[i] == Piece.WHITE_PAWN || pieces[i] == Piece.BLACK_PAWN)
+					&& (sq < 5 || sq >= State.NUM_SQUARES - 5)) {
+				return false;
+			}
+			occupied |= bit;
+			boards[pieces[i]] |= bit;
+			nextSquare = sq;
+		}
+		return true;
+	}
+
+	/* Function:
+	 *   solve
+	 * Description:
+	 *   Works out the value of every position in the table, splitting each pass
+	 *   over the positions across several threads.
+	 * Inputs:
+	 *    tables : The tables solved so far, for the positions after a capture or
+	 *             promotion. Must include this table, so that positions with the
+	 *             same pieces are looked up here.
+	 *   threads : Number of threads to use.
+	 * Outputs:
+	 *   The table's values.
+	 * Return values:
+	 *   None.
+	 */
+	public void solve(final Tablebases tables, int threads) throws InterruptedException {
+		final byte[] solved = values.array();
+		for (int pass = 0; pass <= MAX_DISTANCE; pass++) {
+			final int n = pass;
+			final AtomicInteger next = new AtomicInteger(0);
+			final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+			Thread[] workers = new Thread[Math.max(threads, 1)];
+			for (int t = 0; t < workers.length; t++) {
+				workers[t] = new Thread(new Runnable() {
+					public void run() {
+						State s = new State();
+						long[] boards = new long[Piece.EMPTY];
+						try {
+							int start;
+							while ((start = next.getAndAdd(CHUNK)) < numPositions) {
+								int end = Math.min(start + CHUNK, numPositions);
+								for (int i = start; i < end; i++) {
+									if (solved[i] == DRAW && decode(i, boards)) {
+										s.setPosition(boards, (i & 1) == 0, 1);
+										solved[i] = (byte)solvePosition(s, n, tables);
+									}
+								}
+							}
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				}, "tablebase-" + t);
+				workers[t].start();
+			}
+			for (int t = 0; t < workers.length; t++) {
+				workers[t].join();
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		}
+	}
+
+	/* Function:
+	 *   solvePosition
+	 * Description:
+	 *   One pass of solve for one position. Pass 0 finds the positions where the
+	 *   side on move has no valid moves (lost). Pass n finds the positions won in
+	 *   n plies (a move leads to a position lost in n - 1) and lost in n plies
+	 *   (every move leads to a position won in at most n - 1). Values of distance
+	 *   n or more are ignored, since other threads may be storing them during
+	 *   this pass.
+	 * Inputs:
+	 *        s : The position, with no value found yet.
+	 *        n : The pass.
+	 *   tables : The tables to look up the positions after each move in.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The value of the position, or DRAW if it is not won or lost in n plies.
+	 */
+	private static int solvePosition(State s, int n, Tablebases tables) {
+		MoveList moves = s.getMoveList();
+		s.generateMoves(moves);
+		if (n == 0) {
+			return moves.size == 0 ? loss(0) : DRAW;
+		}
+		boolean allWon = moves.size > 0;
+		for (int i = 0; i < moves.size; i++) {
+			int move = moves.moves[i];
+			int captured = Move.captured(move);
+			if (captured == Piece.WHITE_KING || captured == Piece.BLACK_KING) {
+				return n == 1 ? win(1) : DRAW;
+			}
+			s.makeMove(move);
+			/* With the turn counter at 1, the game can only end here because the
+			 * other side is left with no valid moves. */
+			int value = s.gameOver() ? loss(0) : tables.lookup(s);
+			s.unmakeMove();
+			if (value == Tablebases.NOT_FOUND) {
+				throw new IllegalStateException("No table for a position after " + Move.toMove(move));
+			}
+			if (value == DRAW || distance(value) >= n) {
+				allWon = false;
+			} else if (isLoss(value)) {
+				return win(distance(value) + 1);
+			}
+		}
+		return allWon ? loss(n) : DRAW;
+	}
+
+	/* Function:
+	 *   save
+	 * Description:
+	 *   Writes the table to a file, then reads it back from there (see load) so
+	 *   that it no longer takes up memory of its own.
+	 * Inputs:
+	 *   file : The file to write. Replaced if it exists.
+	 * Outputs:
+	 *   The table in file.
+	 * Return values:
+	 *   None.
+	 */
+	public void save(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(HEADER_BYTES + numPositions);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + numPositions);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(numPositions);
+			for (int i = 0; i < MAX_PIECES; i++) {
+				buf.put((byte)(i < pieces.length ? pieces[i] : Piece.EMPTY));
+			}
+			values.rewind();
+			buf.put(values);
+			values = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, numPositions);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* Function:
+	 *   load
+	 * Description:
+	 *   Reads a table written by save, by mapping the file into memory.
+	 * Inputs:
+	 *   file : The file to read.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The table, or null if the file is not a table from this version.
+	 */
+	public static Tablebase load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < HEADER_BYTES) {
+				return null;
+			}
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return null;
+			}
+			int numPositions = header.getInt();
+			int numPieces = 0;
+			int[] pieces = new int[MAX_PIECES];
+			while (numPieces < MAX_PIECES && header.get(12 + numPieces) != Piece.EMPTY) {
+				pieces[numPieces] = header.get(12 + numPieces);
+				numPieces++;
+			}
+			int[] tablePieces = new int[numPieces];
+			System.arraycopy(pieces, 0, tablePieces, 0, numPieces);
+			Tablebase table = new Tablebase(tablePieces, null);
+			if (table.numPositions != numPositions || raf.length() != HEADER_BYTES + (long)numPositions) {
+				return null;
+			}
+			table.values = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, numPositions);
+			return table;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* Function:
+	 *   getStats
+	 * Description:
+	 *   Counts the won, lost and drawn positions in the table.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A line such as "KQvK: 1234 won, 567 lost, 89 drawn, longest win 21 plies".
+	 */
+	public String getStats() {
+		long[] boards = new long[Piece.EMPTY];
+		int won = 0;
+		int lost = 0;
+		int drawn = 0;
+		int longest = 0;
+		for (int i = 0; i < numPositions; i++) {
+			if (!decode(i, boards)) {
+				continue;
+			}
+			int value = values.get(i);
+			if (isWin(value)) {
+				won++;
+				longest = Math.max(longest, distance(value));
+			} else if (isLoss(value)) {
+				lost++;
+			} else {
+				drawn++;
+			}
+		}
+		return getName() + ": " + won + " won, " + lost + " lost, " + drawn + " drawn, longest win "
+				+ longest + " plies";
+	}
+
+	/* Value for the side on move winning in d plies. */
+	static int win(int d) {
+		return d;
+	}
+
+	/* Value for the side on move losing in d plies. */
+	static int loss(int d) {
+		return -d - 1;
+	}
+
+	/* True if the value is a win for the side on move. */
+	static boolean isWin(int value) {
+		return value > 0;
+	}
+
+	/* True if the value is a loss for the side on move. */
+	static boolean isLoss(int value) {
+		return value < 0;
+	}
+
+	/* Returns the number of plies to the end of the game for a won or lost value. */
+	static int distance(int value) {
+		return value >= 0 ? value : -value - 1;
+	}
+
+	/* Returns the same piece of the other color. */
+	static int swapColor(int piece) {
+		return piece < 6 ? piece + 6 : piece - 6;
+	}
+
+	/* Turns a bitboard upside down (row y becomes row 5 - y). */
+	static long mirror(long b) {
+		long m = 0L;
+		for (int y = 0; y < 6; y++) {
+			m |= ((b >>> (5 * y)) & 0x1FL) << (5 * (5 - y));
+		}
+		return m;
+	}
+}
@@ -0,0 +1,391 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Vector;
+
+/* Class:
+ *   Tablebases
+ * Description:
+ *   A set of endgame tables (see Tablebase), one for each set of pieces, that
+ *   together give the exact value of every position with few enough pieces.
+ *
+ *   Only one of each pair of tables that differ by color is kept: a position
+ *   with the board turned upside down and the colors swapped plays exactly the
+ *   same, so e.g. a KvKQ position is looked up in KQvK. The side with more
+ *   pieces (or, with as many, the stronger pieces) is stored as White.
+ *
+ *   The tables are built by running this class (see main), smallest first, so
+ *   that the tables a capture or promotion leads to are always there already.
+ *   A search probes them through Tablebases.open, which loads each directory
+ *   of tables once and shares it between all searches.
+ */
+public class Tablebases {
+	public static final int NOT_FOUND = Integer.MIN_VALUE;  // Returned by probe for a position with no table.
+	private static final String SUFFIX = ".mtb";
+	/* Piece kinds other than the king, strongest first. Tables list each side's
+	 * pieces in this order. */
+	private static final int[] ORDER = {
+		Piece.WHITE_QUEEN, Piece.WHITE_ROOK, Piece.WHITE_BISHOP, Piece.WHITE_KNIGHT, Piece.WHITE_PAWN
+	};
+	private static final HashMap<String, Tablebases> opened = new HashMap<String, Tablebases>();
+
+	private HashMap<Integer, Tablebase> tables;  // Tables by material key (see materialKey).
+	private int maxPieces;                       // Most pieces in any of the tables.
+
+	public Tablebases() {
+		tables = new HashMap<Integer, Tablebase>();
+		maxPieces = 0;
+	}
+
+	/* Adds a table to the set, replacing any with the same pieces. */
+	public void add(Tablebase table) {
+		int[] pieces = table.getPieces();
+		tables.put(materialKey(pieces), table);
+		maxPieces = Math.max(maxPieces, pieces.length);
+	}
+
+	/* Returns the number of tables in the set. */
+	public int size() {
+		return tables.size();
+	}
+
+	/* Returns the most pieces (kings included) of any table in the set. */
+	public int getMaxPieces() {
+		return maxPieces;
+	}
+
+	/* Function:
+	 *   probe
+	 * Description:
+	 *   Looks up the exact value of a position, taking the turn limit into
+	 *   account: a win that takes more plies than are left is a draw.
+	 * Inputs:
+	 *   s : The position. The game must not be over.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The value of the position for the side on move (see Tablebase), or
+	 *   NOT_FOUND if there is no table for its pieces.
+	 */
+	public int probe(State s) {
+		int value = lookup(s);
+		if (value == NOT_FOUND || value == Tablebase.DRAW) {
+			return value;
+		}
+		int pliesLeft = (s.getMaxTurns() - s.getTurnNumber()) * 2 + (s.whiteOnMove() ? 2 : 1);
+		return Tablebase.distance(value) <= pliesLeft ? value : Tablebase.DRAW;
+	}
+
+	/* Function:
+	 *   lookup
+	 * Description:
+	 *   Looks up the value of a position with no turn limit.
+	 * Inputs:
+	 *   s : The position.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The value of the position for the side on move (see Tablebase), or
+	 *   NOT_FOUND if there is no table for its pieces.
+	 */
+	int lookup(State s) {
+		if (s.getPieceCount() > maxPieces
+				|| s.getBitboard(Piece.WHITE_KING) == 0 || s.getBitboard(Piece.BLACK_KING) == 0) {
+			return NOT_FOUND;
+		}
+		Tablebase table = tables.get(materialKey(s, false));
+		if (table != null) {
+			return table.get(table.index(s, false));
+		}
+		table = tables.get(materialKey(s, true));
+		if (table != null) {
+			return table.get(table.index(s, true));
+		}
+		return NOT_FOUND;
+	}
+
+	/* Returns a number that identifies the pieces on the board other than the
+	 * kings: two bits for each kind and color. With mirror set, the colors are
+	 * swapped. Only valid with at most three pieces of each kind and color. */
+	private static int materialKey(State s, boolean mirror) {
+		int key = 0;
+		for (int j = 0; j < ORDER.length; j++) {
+			int white = Long.bitCount(s.getBitboard(ORDER[j]));
+			int black = Long.bitCount(s.getBitboard(Tablebase.swapColor(ORDER[j])));
+			key |= (mirror ? black : white) << (2 * j);
+			key |= (mirror ? white : black) << (2 * (j + ORDER.length));
+		}
+		return key;
+	}
+
+	/* Returns the material key (see above) of a table's pieces. */
+	private static int materialKey(int[] pieces) {
+		int key = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			for (int j = 0; j < ORDER.length; j++) {
+				if (pieces[i] == ORDER[j]) {
+					key += 1 << (2 * j);
+				} else if (pieces[i] == Tablebase.swapColor(ORDER[j])) {
+					key += 1 << (2 * (j + ORDER.length));
+				}
+			}
+		}
+		return key;
+	}
+
+	/* Function:
+	 *   open
+	 * Description:
+	 *   Returns the tables in a directory, loading them the first time they are
+	 *   asked for.
+	 * Inputs:
+	 *   dir : The directory, or null.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The tables, or null if dir is null or holds no tables that can be read.
+	 */
+	static synchronized Tablebases open(String dir) {
+		if (dir == null) {
+			return null;
+		}
+		if (!opened.containsKey(dir)) {
+			Tablebases tables;
+			try {
+				tables = load(new File(dir));
+			} catch (IOException e) {
+				tables = null;
+			}
+			opened.put(dir, tables);
+		}
+		return opened.get(dir);
+	}
+
+	/* Function:
+	 *   load
+	 * Description:
+	 *   Loads every table in a directory (see Tablebase.load).
+	 * Inputs:
+	 *   dir : The directory.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The tables, or null if there are none.
+	 */
+	public static Tablebases load(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return null;
+		}
+		Tablebases tables = new Tablebases();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(SUFFIX)) {
+				Tablebase table = Tablebase.load(files[i]);
+				if (table != null) {
+					tables.add(table);
+				}
+			}
+		}
+		return tables.size() == 0 ? null : tables;
+	}
+
+	/* Function:
+	 *   generate
+	 * Description:
+	 *   Builds every table with up to the given number of pieces, smallest first,
+	 *   and saves each one to a directory. Tables already saved there are loaded
+	 *   instead of being built again.
+	 * Inputs:
+	 *         dir : The directory to save the tables in. Created if needed.
+	 *   maxPieces : Most pieces (kings included) in a table, from 2 to
+	 *               Tablebase.MAX_PIECES.
+	 *     threads : Number of threads to solve each table with.
+	 *         out : Where to print a line about each table.
+	 * Outputs:
+	 *   A file for each table in dir.
+	 * Return values:
+	 *   The tables.
+	 */
+	public static Tablebases generate(File dir, int maxPieces, int threads, PrintStream out)
+			throws IOException, InterruptedException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		Tablebases tables = new Tablebases();
+		Vector<int[]> sets = materialSets(maxPieces);
+		for (int i = 0; i < sets.size(); i++) {
+			Tablebase table = new Tablebase(sets.elementAt(i));
+			File file = new File(dir, table.getName() + SUFFIX);
+			Tablebase saved = file.isFile() ? Tablebase.load(file) : null;
+			if (saved != null && Arrays.equals(saved.getPieces(), table.getPieces())) {
+				tables.add(saved);
+				out.println(table.getName() + ": already built");
+				continue;
+			}
+			long start = System.nanoTime();
+			tables.add(table);
+			table.solve(tables, threads);
+			table.save(file);
+			out.println(table.getStats() + " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+		}
+		return tables;
+	}
+
+	/* Function:
+	 *   materialSets
+	 * Description:
+	 *   Lists the pieces of every table with up to the given number of pieces,
+	 *   one of each pair that differ by color, in an order in which they can be
+	 *   built: by number of pieces (captures lead to fewer), then by number of
+	 *   pawns (promotions lead to fewer).
+	 * Inputs:
+	 *   maxPieces : Most pieces, kings included.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The pieces of each table, as ordered for Tablebase.
+	 */
+	private static Vector<int[]> materialSets(int maxPieces) {
+		/* Every way to pick up to maxPieces - 2 pieces for one side, as counts
+		 * of each kind in ORDER. */
+		Vector<int[]> sides = new Vector<int[]>();
+		int others = maxPieces - 2;
+		int combinations = 1;
+		for (int j = 0; j < ORDER.length; j++) {
+			combinations *= others + 1;
+		}
+		for (int c = 0; c < combinations; c++) {
+			int[] counts = new int[ORDER.length];
+			int total = 0;
+			for (int j = 0, rest = c; j < ORDER.length; j++, rest /= others + 1) {
+				counts[j] = rest % (others + 1);
+				total += counts[j];
+			}
+			if (total <= others) {
+				sides.add(counts);
+			}
+		}
+
+		Vector<int[]> sets = new Vector<int[]>();
+		for (int w = 0; w < sides.size(); w++) {
+			for (int b = 0; b < sides.size(); b++) {
+				int[] white = sides.elementAt(w);
+				int[] black = sides.elementAt(b);
+				if (sum(white) + sum(black) <= others && compareSides(white, black) >= 0) {
+					sets.add(pieces(white, black));
+				}
+			}
+		}
+		Collections.sort(sets, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				if (a.length != b.length) {
+					return a.length - b.length;
+				}
+				return pawns(a) - pawns(b);
+			}
+		});
+		return sets;
+	}
+
+	/* Compares the pieces of two sides (as counts of each kind in ORDER): more
+	 * pieces first, then more of the stronger kinds. */
+	private static int compareSides(int[] a, int[] b) {
+		if (sum(a) != sum(b)) {
+			return sum(a) - sum(b);
+		}
+		for (int j = 0; j < ORDER.length; j++) {
+			if (a[j] != b[j]) {
+				return a[j] - b[j];
+			}
+		}
+		return 0;
+	}
+
+	/* Builds the pieces of a table from the counts of each kind in ORDER for White and Black. */
+	private static int[] pieces(int[] white, int[] black) {
+		int[] pieces = new int[2 + sum(white) + sum(black)];
+		int n = 0;
+		pieces[n++] = Piece.WHITE_KING;
+		for (int j = 0; j < ORDER.length; j++) {
+			for (int k = 0; k < white[j]; k++) {
+				pieces[n++] = ORDER[j];
+			}
+		}
+		pieces[n++] = Piece.BLACK_KING;
+		for (int j = 0; j < ORDER.length; j++) {
+			for (int k = 0; k < black[j]; k++) {
+				pieces[n++] = Tablebase.swapColor(ORDER[j]);
+			}
+		}
+		return pieces;
+	}
+
+	/* Adds up an array of counts. */
+	private static int sum(int[] counts) {
+		int total = 0;
+		for (int j = 0; j < counts.length; j++) {
+			total += counts[j];
+		}
+		return total;
+	}
+
+	/* Counts the pawns in a table's pieces. */
+	private static int pawns(int[] pieces) {
+		int count = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] == Piece.WHITE_PAWN || pieces[i] == Piece.BLACK_PAWN) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Builds the tables.
+	 *   Usage: java Tablebases [-dir directory] [-pieces N] [-threads N]
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, the tables
+	 *          with up to 4 pieces are built in the directory "tablebases" with
+	 *          one thread per core.
+	 * Outputs:
+	 *   The tables, and a line about each one on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String dir = "tablebases";
+		int maxPieces = Tablebase.MAX_PIECES;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-dir":
+				dir = args[++i];
+				break;
+			case "-pieces":
+				maxPieces = Integer.parseInt(args[++i]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		if (maxPieces < 2 || maxPieces > Tablebase.MAX_PIECES) {
+			System.out.println("Pieces must be from 2 to " + Tablebase.MAX_PIECES + ".");
+			return;
+		}
+
+		long start = System.nanoTime();
+		Tablebases tables = generate(new File(dir), maxPieces, threads, System.out);
+		System.out.println(tables.size() + " tables in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
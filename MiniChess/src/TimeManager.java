@@ -0,0 +1,158 @@
+/* Class:
+ *   TimeManager
+ * Description:
+ *   Decides how long to search for each move. Keeps track of the time left on
+ *   this side's game clock, and splits it over the moves left before the turn
+ *   limit ends the game. Each move gets a soft limit, which the search aims for,
+ *   and a hard limit, which it never passes.
+ *
+ *   The soft limit is only checked between iterations of the search. It is
+ *   stretched when the best move changed in the last iteration (the search has
+ *   not settled, so more time is worth it) and shrunk when the best move has
+ *   stayed the same for several iterations (more time is unlikely to change it).
+ *   A new iteration is not started unless it is likely to finish within the
+ *   soft limit, since each iteration takes longer than all before it.
+ */
+public class TimeManager {
+	private static final double HARD_LIMIT_FACTOR = 4.0;    // Hard limit as a multiple of the soft limit...
+	private static final double MAX_CLOCK_FRACTION = 0.75;  // ...but never more than this much of the clock.
+	private static final double MIN_MOVE_TIME = 0.02;       // Always search at least this long (seconds).
+	private static final double UNSTABLE_FACTOR = 1.5;      // Soft limit multiplier when the best move changed.
+	private static final double STABLE_FACTOR = 0.5;        // Soft limit multiplier when the best move is stable.
+	private static final int STABLE_ITERATIONS = 3;         // Iterations with the same best move to count as stable.
+	private static final double NEXT_ITERATION_FRACTION = 0.5; // Do not start an iteration past this much of the soft limit.
+
+	private double remaining;       // Seconds left on this side's clock.
+	private double overhead;        // Seconds kept back per move for sending it (network latency etc.).
+	private boolean fixed;          // The current move has a fixed time limit rather than a budget.
+	private long moveStartTime;     // When the current move's search started (System.nanoTime).
+	private double softLimit;       // Seconds the current move should take.
+	private double hardLimit;       // Seconds the current move must not exceed.
+	private double softFactor;      // Current stretch of the soft limit (see stopAfterIteration).
+	private int stableIterations;   // Completed iterations in a row with the same best move.
+
+	/* Function:
+	 *   TimeManager
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *   gameClock : Seconds on this side's clock for the whole game.
+	 *    overhead : Seconds to keep back for each move, for network latency.
+	 * Outputs:
+	 *   A new TimeManager.
+	 * Return values:
+	 *   None.
+	 */
+	public TimeManager(double gameClock, double overhead) {
+		this.remaining = gameClock;
+		this.overhead = overhead;
+		fixed = false;
+		moveStartTime = 0;
+		softLimit = 0.0;
+		hardLimit = 0.0;
+		softFactor = 1.0;
+		stableIterations = 0;
+	}
+
+	/* Function:
+	 *   startMove
+	 * Description:
+	 *   Starts the clock for a move and works out its soft and hard limits.
+	 * Inputs:
+	 *     turnNumber : The turn being played (starting at 1).
+	 *       maxTurns : The turn after which the game is drawn.
+	 *   moveTimeLimit : A fixed number of seconds to search for, or 0 to budget
+	 *                   the move from the game clock.
+	 * Outputs:
+	 *   The limits for the move are stored in this TimeManager.
+	 * Return values:
+	 *   None.
+	 */
+	public void startMove(int turnNumber, int maxTurns, double moveTimeLimit) {
+		moveStartTime = System.nanoTime();
+		softFactor = 1.0;
+		stableIterations = 0;
+		if (moveTimeLimit > 0) {
+			fixed = true;
+			softLimit = moveTimeLimit;
+			hardLimit = moveTimeLimit;
+			return;
+		}
+		fixed = false;
+		int movesLeft = Math.max(maxTurns - turnNumber + 1, 1);
+		double available = Math.max(remaining - overhead * movesLeft, 0.0);
+		softLimit = Math.max(available / movesLeft, MIN_MOVE_TIME);
+		hardLimit = Math.min(softLimit * HARD_LIMIT_FACTOR, available * MAX_CLOCK_FRACTION);
+		hardLimit = Math.max(hardLimit, softLimit);
+	}
+
+	/* Function:
+	 *   stopAfterIteration
+	 * Description:
+	 *   Called by the search after each completed iteration to decide whether to
+	 *   start another. Adjusts the soft limit by whether the best move changed.
+	 * Inputs:
+	 *   bestMoveChanged : The iteration found a different best move from the one
+	 *                     before it.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *    True : Stop searching and play the best move found.
+	 *   False : Start the next iteration.
+	 */
+	public boolean stopAfterIteration(boolean bestMoveChanged) {
+		if (fixed) {
+			return false;
+		}
+		if (bestMoveChanged) {
+			stableIterations = 0;
+			softFactor = UNSTABLE_FACTOR;
+		} else if (++stableIterations >= STABLE_ITERATIONS) {
+			softFactor = STABLE_FACTOR;
+		} else {
+			softFactor = 1.0;
+		}
+		return getElapsed() >= softLimit * softFactor * NEXT_ITERATION_FRACTION;
+	}
+
+	/* Function:
+	 *   endMove
+	 * Description:
+	 *   Stops the clock for a move and takes the time used off the game clock.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The time remaining is updated.
+	 * Return values:
+	 *   None.
+	 */
+	public void endMove() {
+		remaining -= getElapsed();
+	}
+
+	/* Returns the System.nanoTime value at which the current move's hard limit
+	 * is reached. */
+	public long getDeadline() {
+		double nanos = hardLimit * 1.0e9;
+		if (nanos >= (double)Long.MAX_VALUE - moveStartTime) {
+			return Long.MAX_VALUE;
+		}
+		return moveStartTime + (long)nanos;
+	}
+
+	/* Returns the number of seconds since the current move was started. */
+	public double getElapsed() {
+		return (System.nanoTime() - moveStartTime) * 1.0e-9;
+	}
+
+	/* Returns the number of seconds left on this side's clock. */
+	public double getRemaining() {
+		return remaining;
+	}
+
+	/* Sets the number of seconds left on this side's clock, e.g. as reported by
+	 * the server. */
+	public void setRemaining(double seconds) {
+		remaining = seconds;
+	}
+}
@@ -0,0 +1,368 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Class:
+ *   Tournament
+ * Description:
+ *   Plays many games between two engine settings ("A" and "B") to find out
+ *   whether a change makes the engine stronger. Several games are played at
+ *   once, one per thread, and nothing is printed but one line per finished game.
+ *
+ *   Games are played in pairs from the same opening: a few random moves from
+ *   the starting position, then A plays White in one game and Black in the
+ *   other. After each game the score of A gives an Elo difference with a 95%
+ *   confidence interval, and a sequential probability ratio test (SPRT) of
+ *   H0: A is elo0 stronger than B, against H1: A is elo1 stronger. The
+ *   tournament stops as soon as the test accepts one of them, so a clear
+ *   result takes as few games as it can.
+ *
+ *   The test uses the usual normal approximation to the log-likelihood ratio
+ *   of the mean game score:
+ *
+ *     LLR = N * (s1 - s0) * (2 * mean - s0 - s1) / (2 * variance)
+ *
+ *   where s0 and s1 are the expected scores for elo0 and elo1. H1 is accepted
+ *   when LLR reaches log((1 - beta) / alpha) and H0 when it falls to
+ *   log(beta / (1 - alpha)). The approximation is poor for a handful of games,
+ *   so the test does not decide before MIN_GAMES have been played.
+ */
+public class Tournament {
+	private static final int MIN_GAMES = 16;  // Fewest games before the SPRT can decide.
+
+	private SearchOptions optionsA;   // Settings of engine A.
+	private SearchOptions optionsB;   // Settings of engine B.
+	private int maxGames;             // Most games to play.
+	private int openingPlies;         // Random moves played from the start before the engines take over.
+	private long seed;                // Seed for the random openings.
+	private double elo0;              // Elo difference under H0.
+	private double elo1;              // Elo difference under H1.
+	private double alpha;             // Chance of accepting H1 when H0 is true.
+	private double beta;              // Chance of accepting H0 when H1 is true.
+
+	private AtomicInteger nextGame;   // Index of the next game to start.
+	private volatile boolean stopped; // Set when the SPRT has accepted a hypothesis.
+	private int wins;                 // Games won by A.
+	private int draws;                // Games drawn.
+	private int losses;               // Games lost by A.
+	private String decision;          // The SPRT result, once there is one.
+
+	/* Function:
+	 *   Tournament
+	 * Description:
+	 *   Constructor.
+	 * Inputs:
+	 *       optionsA : Settings of engine A (the one being tested).
+	 *       optionsB : Settings of engine B (the baseline).
+	 *       maxGames : Most games to play if the SPRT does not decide first.
+	 *   openingPlies : Random moves to play from the start of each game pair.
+	 *           seed : Seed for the random openings.
+	 * Outputs:
+	 *   A new Tournament, with the SPRT set to elo0 = 0, elo1 = 10 and
+	 *   alpha = beta = 0.05 (see setSprt).
+	 * Return values:
+	 *   None.
+	 */
+	public Tournament(SearchOptions optionsA, SearchOptions optionsB, int maxGames, int openingPlies, long seed) {
+		this.optionsA = optionsA;
+		this.optionsB = optionsB;
+		this.maxGames = maxGames;
+		this.openingPlies = openingPlies;
+		this.seed = seed;
+		setSprt(0.0, 10.0, 0.05, 0.05);
+		nextGame = new AtomicInteger(0);
+		stopped = false;
+		wins = 0;
+		draws = 0;
+		losses = 0;
+		decision = null;
+	}
+
+	/* Sets the hypotheses and error rates of the SPRT. */
+	public void setSprt(double elo0, double elo1, double alpha, double beta) {
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.alpha = alpha;
+		this.beta = beta;
+	}
+
+	/* Function:
+	 *   run
+	 * Description:
+	 *   Plays the tournament, with each thread taking the next game until the
+	 *   SPRT decides or maxGames have been started. Games already under way when
+	 *   the SPRT decides are finished and counted.
+	 * Inputs:
+	 *   concurrency : Number of games to play at once.
+	 * Outputs:
+	 *   A line for each game on standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public void run(int concurrency) throws InterruptedException {
+		Thread[] workers = new Thread[Math.max(concurrency, 1)];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					int game;
+					while (!stopped && (game = nextGame.getAndIncrement()) < maxGames) {
+						try {
+							record(game, playGame(game));
+						} catch (Exception e) {
+							System.out.println("Game " + (game + 1) + " failed: " + e);
+						}
+					}
+				}
+			}, "game-" + t);
+			workers[t].start();
+		}
+		for (int t = 0; t < workers.length; t++) {
+			workers[t].join();
+		}
+	}
+
+	/* Function:
+	 *   playGame
+	 * Description:
+	 *   Plays one game. Even games have A as White and odd games have A as
+	 *   Black, each pair from the same opening. Each engine has its own copy of
+	 *   the position, with its own settings, transposition table and clock.
+	 * Inputs:
+	 *   game : The index of the game.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A's score: 1 for a win, 0.5 for a draw, 0 for a loss.
+	 */
+	private double playGame(int game) throws Exception {
+		boolean aIsWhite = (game % 2 == 0);
+		State start = opening(game / 2);
+		State white = start.clone();
+		State black = start.clone();
+		white.setSearchOptions(aIsWhite ? optionsA : optionsB);
+		black.setSearchOptions(aIsWhite ? optionsB : optionsA);
+
+		while (!white.gameOver()) {
+			Move move = white.whiteOnMove() ? white.getBestMove() : black.getBestMove();
+			white = white.executeMove(move);
+			black = black.executeMove(move);
+		}
+		if (!white.whiteWins() && !white.blackWins()) {
+			return 0.5;
+		}
+		return (white.whiteWins() == aIsWhite) ? 1.0 : 0.0;
+	}
+
+	/* Builds the starting position of a game pair: openingPlies random moves
+	 * from the start, chosen from the seed and the pair so that both games get
+	 * the same one. Stops early if a move would end the game. */
+	private State opening(int pair) throws Exception {
+		Random rnd = new Random(seed * 1000003L + pair);
+		State position = new State();
+		MoveList moves = new MoveList();
+		for (int ply = 0; ply < openingPlies; ply++) {
+			position.generateMoves(moves);
+			State next = position.executeMove(Move.toMove(moves.moves[rnd.nextInt(moves.size)]));
+			if (next.gameOver()) {
+				break;
+			}
+			position = next;
+		}
+		return position;
+	}
+
+	/* Counts a finished game, prints the standings and runs the SPRT. */
+	private synchronized void record(int game, double score) {
+		if (score == 1.0) {
+			wins++;
+		} else if (score == 0.0) {
+			losses++;
+		} else {
+			draws++;
+		}
+		if (decision == null && wins + draws + losses >= MIN_GAMES) {
+			double llr = getLlr();
+			if (llr >= Math.log((1.0 - beta) / alpha)) {
+				decision = "H1 accepted (A is at least " + elo1 + " Elo stronger)";
+			} else if (llr <= Math.log(beta / (1.0 - alpha))) {
+				decision = "H0 accepted (A is not " + elo1 + " Elo stronger)";
+			}
+			stopped = (decision != null);
+		}
+		System.out.println("Game " + (game + 1) + ": " + (score == 1.0 ? "A wins" : score == 0.0 ? "B wins" : "draw")
+				+ ". " + getStandings());
+	}
+
+	/* Function:
+	 *   getStandings
+	 * Description:
+	 *   Describes the results so far.
+	 * Inputs:
+	 *   None.
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   A line such as "A +12 -8 =20, Elo 34.9 +/- 88.2, LLR 0.41 (-2.94, 2.94)".
+	 */
+	public synchronized String getStandings() {
+		int games = wins + draws + losses;
+		double mean = getMeanScore();
+		double margin = 1.96 * Math.sqrt(getVariance() / Math.max(games, 1));
+		double elo = elo(mean);
+		double errorElo = (elo(mean + margin) - elo(mean - margin)) / 2.0;
+		return String.format("A +%d -%d =%d, Elo %.1f +/- %.1f, LLR %.2f (%.2f, %.2f)",
+				wins, losses, draws, elo, errorElo, getLlr(),
+				Math.log(beta / (1.0 - alpha)), Math.log((1.0 - beta) / alpha));
+	}
+
+	/* Returns the SPRT result, or null if it has not decided yet. */
+	public synchronized String getDecision() {
+		return decision;
+	}
+
+	/* Returns A's mean score per game (0.5 with no games). */
+	private double getMeanScore() {
+		int games = wins + draws + losses;
+		return games == 0 ? 0.5 : (wins + 0.5 * draws) / games;
+	}
+
+	/* Returns the variance of A's score per game. */
+	private double getVariance() {
+		int games = wins + draws + losses;
+		if (games == 0) {
+			return 0.0;
+		}
+		double mean = getMeanScore();
+		return (wins * (1.0 - mean) * (1.0 - mean) + draws * (0.5 - mean) * (0.5 - mean)
+				+ losses * mean * mean) / games;
+	}
+
+	/* Returns the log-likelihood ratio of H1 to H0 (see the class description). */
+	private double getLlr() {
+		int games = wins + draws + losses;
+		double variance = getVariance();
+		if (games == 0 || variance == 0.0) {
+			return 0.0;
+		}
+		double s0 = expectedScore(elo0);
+		double s1 = expectedScore(elo1);
+		return games * (s1 - s0) * (2.0 * getMeanScore() - s0 - s1) / (2.0 * variance);
+	}
+
+	/* Returns the expected score of a side that is the given number of Elo stronger. */
+	private static double expectedScore(double elo) {
+		return 1.0 / (1.0 + Math.pow(10.0, -elo / 400.0));
+	}
+
+	/* Returns the Elo difference for an expected score, limited to +/- 1000. */
+	private static double elo(double score) {
+		double clamped = Math.min(Math.max(score, 0.0031), 0.9969);
+		return -400.0 * Math.log10(1.0 / clamped - 1.0);
+	}
+
+	/* Function:
+	 *   parseOptions
+	 * Description:
+	 *   Builds engine settings from a comma-separated list of name=value pairs,
+	 *   e.g. "threads=2,pvs=false". The names are those of SearchOptions.set.
+	 * Inputs:
+	 *   spec : The list, or an empty string.
+	 *   base : The settings to start from (not changed).
+	 * Outputs:
+	 *   The return values.
+	 * Return values:
+	 *   The new settings.
+	 */
+	static SearchOptions parseOptions(String spec, SearchOptions base) {
+		SearchOptions options = base.clone();
+		for (String pair : spec.split(",")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			String[] parts = pair.split("=", 2);
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Expected name=value: " + pair);
+			}
+			options.set(parts[0], parts[1]);
+		}
+		return options;
+	}
+
+	/* Function:
+	 *   main
+	 * Description:
+	 *   Runs a tournament between two engine settings.
+	 *   Usage: java Tournament [-games N] [-concurrency N] [-time seconds per move]
+	 *          [-clock seconds per game] [-openingplies N] [-seed N]
+	 *          [-sprt elo0 elo1 alpha beta] [-a settings] [-b settings]
+	 *   The settings of each engine are given as for parseOptions, on top of
+	 *   -time or -clock. E.g. "-a pvs=true -b pvs=false" tests PVS.
+	 * Inputs:
+	 *   args : Command line arguments as shown above. By default, 1000 games at
+	 *          0.1 seconds per move, one game per core, 4 opening plies and an
+	 *          SPRT of 0 against 10 Elo with alpha = beta = 0.05.
+	 * Outputs:
+	 *   A line for each game, then the final standings and SPRT result, on
+	 *   standard out.
+	 * Return values:
+	 *   None.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int games = 1000;
+		int concurrency = Runtime.getRuntime().availableProcessors();
+		int openingPlies = 4;
+		long seed = 1;
+		String specA = "";
+		String specB = "";
+		double[] sprt = { 0.0, 10.0, 0.05, 0.05 };
+		SearchOptions base = new SearchOptions();
+		base.moveTimeLimit = 0.1;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-games":
+				games = Integer.parseInt(args[++i]);
+				break;
+			case "-concurrency":
+				concurrency = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				base.moveTimeLimit = Double.parseDouble(args[++i]);
+				break;
+			case "-clock":
+				base.moveTimeLimit = 0.0;
+				base.gameClock = Double.parseDouble(args[++i]);
+				break;
+			case "-openingplies":
+				openingPlies = Integer.parseInt(args[++i]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			case "-sprt":
+				for (int j = 0; j < sprt.length; j++) {
+					sprt[j] = Double.parseDouble(args[++i]);
+				}
+				break;
+			case "-a":
+				specA = args[++i];
+				break;
+			case "-b":
+				specB = args[++i];
+				break;
+			default:
+				System.out.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+
+		Tournament tournament = new Tournament(parseOptions(specA, base), parseOptions(specB, base),
+				games, openingPlies, seed);
+		tournament.setSprt(sprt[0], sprt[1], sprt[2], sprt[3]);
+		long start = System.nanoTime();
+		tournament.run(concurrency);
+		System.out.println("Final: " + tournament.getStandings());
+		String decision = tournament.getDecision();
+		System.out.println("SPRT: " + (decision != null ? decision : "no decision") + " after "
+				+ (System.nanoTime() - start) / 1000000000 + " s");
+	}
+}
@@ -1,69 +1,68 @@
 import java.util.Random;
 
+/* Class:
+ *   ZobristTable
+ * Description:
+ *   The random keys that Zobrist hashes are built from: one for each piece
+ *   (or no piece) on each square, one for each side on move, and one for each
+ *   number of turns left before the turn limit. There is one set of keys for
+ *   the whole program, made once from a fixed seed, so every State, thread and
+ *   run hashes a position the same way.
+ */
 public class ZobristTable {
-	private int numSquares;
-	private int numPieces;
-	private long[][] entries;
-	private Random rnd;
+	/* Seed for the random values. Fixed, so that every run of the program
+	 * hashes a position the same way and saved transposition tables stay
+	 * valid (see TTable.save). */
+	public static final long SEED = 0x4D696E6943686573L;
+	/* Most turns left that get a key of their own; more share the last one. */
+	public static final int MAX_TURNS_LEFT = 63;
 	
-	/* Initializes the Zobrist Table with random long
-	 * integer values. */
-	public ZobristTable() {
-		numSquares = 30;
-		numPieces = 13;
-		entries = new long[numSquares][numPieces];
-		rnd = new Random();
-		for (int i = 0; i < numSquares; i++) {
-			for (int j = 0; j < numPieces; j++) {
-				entries[i][j] = rnd.nextLong();
+	private static final int NUM_SQUARES = 30;
+	private static final int NUM_PIECES = 13;
+	private static final long[][] ENTRIES = new long[NUM_SQUARES][NUM_PIECES];
+	private static final long[] TURN_HASHES = new long[MAX_TURNS_LEFT + 1];
+	private static final long WHITE_HASH;
+	private static final long BLACK_HASH;
+	
+	/* Fills the table with random long integer values. The square keys come
+	 * first, so they are the same as before the other keys were added. */
+	static {
+		Random rnd = new Random(SEED);
+		for (int i = 0; i < NUM_SQUARES; i++) {
+			for (int j = 0; j < NUM_PIECES; j++) {
+				ENTRIES[i][j] = rnd.nextLong();
 			}
 		}
+		WHITE_HASH = rnd.nextLong();
+		BLACK_HASH = rnd.nextLong();
+		for (int i = 0; i <= MAX_TURNS_LEFT; i++) {
+			TURN_HASHES[i] = rnd.nextLong();
+		}
 	}
 	
-	/* Gets the entry in the hash table that corresponds to
-	 * the given piece and square combination. */
-	public long getHash(Square sq, char piece) {
-		int pieceIndex = getIndexForPiece(piece);
-		int squareIndex = getIndexForSquare(sq);
-		return entries[squareIndex][pieceIndex];
+	private ZobristTable() {
 	}
 	
-	/* Gets the index in the table for the given square. */
-	private int getIndexForSquare(Square sq) {
-		return (5 * sq.y) + sq.x;
+	/* Gets the value that marks White as the player on move. */
+	public static long getWhiteHash() {
+		return WHITE_HASH;
 	}
 	
-	/* Gets the index in the table for the given piece. */
-	private int getIndexForPiece(char piece) {
-		switch(piece) {
-		case 'P':
-			return 0;
-		case 'R':
-			return 1;
-		case 'N':
-			return 2;
-		case 'B':
-			return 3;
-		case 'Q':
-			return 4;
-		case 'K':
-			return 5;
-		case 'p':
-			return 6;
-		case 'r':
-			return 7;
-		case 'n':
-			return 8;
-		case 'b':
-			return 9;
-		case 'q':
-			return 10;
-		case 'k':
-			return 11;
-		case '.':
-			return 12;
-		default:
-			return -1;
-		}
+	/* Gets the value that marks Black as the player on move. */
+	public static long getBlackHash() {
+		return BLACK_HASH;
+	}
+	
+	/* Gets the value that marks the number of turns left before the game is
+	 * drawn by the turn limit (0 on the last turn). */
+	public static long getTurnHash(int turnsLeft) {
+		return TURN_HASHES[Math.min(Math.max(turnsLeft, 0), MAX_TURNS_LEFT)];
+	}
+	
+	/* Gets the entry in the hash table that corresponds to
+	 * the given square index (5 * y + x) and piece index
+	 * (see Piece.WHITE_PAWN..Piece.EMPTY). */
+	public static long getHash(int squareIndex, int pieceIndex) {
+		return ENTRIES[squareIndex][pieceIndex];
 	}
 }